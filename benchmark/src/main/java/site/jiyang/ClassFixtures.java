@@ -0,0 +1,161 @@
+package site.jiyang;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试使用的类文件: 从 classpath 和 JDK 中读取的真实类, 以及生成的极端情况的类
+ */
+final class ClassFixtures {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA_8 = 52;
+
+    private ClassFixtures() {
+    }
+
+    static ByteBuffer resource(String name) throws IOException {
+        try (InputStream in = ClassLoader.getSystemResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Not found: " + name);
+            }
+            return ByteBuffer.wrap(readAll(in));
+        }
+    }
+
+    /**
+     * 一个 JDK 模块中的所有类文件, 例如 "java.base"
+     */
+    static List<ByteBuffer> jdkModule(String module) throws IOException {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        List<ByteBuffer> classes = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(jrt.getPath("modules", module))) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (path.toString().endsWith(".class")) {
+                    classes.add(ByteBuffer.wrap(Files.readAllBytes(path)));
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * 常量池有 65535 项(常量池计数的上限), 包括 Utf8, Integer 和占两个位置的 Long
+     */
+    static ByteBuffer largeConstantPool() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(JAVA_8);
+        out.writeShort(0xFFFF);
+        out.writeByte(1);
+        out.writeUTF("LargeConstantPool"); // #1
+        out.writeByte(7);
+        out.writeShort(1);                 // #2
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");  // #3
+        out.writeByte(7);
+        out.writeShort(3);                 // #4
+        int index = 5;
+        while (index < 0xFFFF) {
+            if (index % 3 == 0 && index + 1 < 0xFFFF) {
+                out.writeByte(5);
+                out.writeLong(index);
+                index += 2;
+            } else if (index % 3 == 1) {
+                out.writeByte(1);
+                out.writeUTF("constant_" + index);
+                index++;
+            } else {
+                out.writeByte(3);
+                out.writeInt(index);
+                index++;
+            }
+        }
+        writeClassInfo(out);
+        out.writeShort(0); // methods_count
+        out.writeShort(0); // attributes_count
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * 一个方法的 code[] 达到 65535 字节的上限
+     */
+    static ByteBuffer largeMethod() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(JAVA_8);
+        out.writeShort(8);
+        out.writeByte(1);
+        out.writeUTF("LargeMethod");       // #1
+        out.writeByte(7);
+        out.writeShort(1);                 // #2
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");  // #3
+        out.writeByte(7);
+        out.writeShort(3);                 // #4
+        out.writeByte(1);
+        out.writeUTF("run");               // #5
+        out.writeByte(1);
+        out.writeUTF("()V");               // #6
+        out.writeByte(1);
+        out.writeUTF("Code");              // #7
+        writeClassInfo(out);
+
+        int codeLength = 0xFFFF;
+        out.writeShort(1);  // methods_count
+        out.writeShort(0x0009); // public static
+        out.writeShort(5);
+        out.writeShort(6);
+        out.writeShort(1);
+        out.writeShort(7);
+        out.writeInt(2 + 2 + 4 + codeLength + 2 + 2);
+        out.writeShort(1);  // max_stack
+        out.writeShort(0);  // max_locals
+        out.writeInt(codeLength);
+        for (int i = 0; i < codeLength / 2; i++) {
+            out.writeByte(0x04); // iconst_1
+            out.writeByte(0x57); // pop
+        }
+        out.writeByte(0xB1);     // return
+        out.writeShort(0);  // exception_table_length
+        out.writeShort(0);  // attributes_count
+        out.writeShort(0);  // class attributes_count
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * access_flags, this_class(#2), super_class(#4), 没有接口和字段
+     */
+    private static void writeClassInfo(DataOutputStream out) throws IOException {
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0); // interfaces_count
+        out.writeShort(0); // fields_count
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buff = new byte[8192];
+        int read;
+        while ((read = in.read(buff)) != -1) {
+            out.write(buff, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
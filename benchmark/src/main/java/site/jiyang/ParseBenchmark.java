@@ -0,0 +1,146 @@
+package site.jiyang;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BytecodeParser 的解析吞吐量, 配合 -prof gc 可以得到每次解析分配的字节数(gc.alloc.rate.norm)
+ * <pre>
+ * mvn -f benchmark/pom.xml package
+ * java -jar benchmark/target/benchmarks.jar -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SingleClass {
+        /**
+         * small: 本项目中的一个小类; medium: java.lang.String;
+         * large-pool: 65535 项的常量池; large-method: 64KB 的方法
+         */
+        @Param({"small", "medium", "large-pool", "large-method"})
+        public String fixture;
+
+        /**
+         * 见 {@link ParseOptions#parse(String)}
+         */
+        @Param({"all", "hierarchy"})
+        public String sections;
+
+        ByteBuffer bytes;
+        int options;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            options = ParseOptions.parse(sections);
+            bytes = fixture(fixture);
+        }
+    }
+
+    /**
+     * 遍历指令时需要方法表, 所以不按 sections 变化, 总是解析所有部分
+     */
+    @State(Scope.Benchmark)
+    public static class CodeClass {
+        @Param({"small", "medium", "large-pool", "large-method"})
+        public String fixture;
+
+        ByteBuffer bytes;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            bytes = fixture(fixture);
+        }
+    }
+
+    static ByteBuffer fixture(String fixture) throws IOException {
+        switch (fixture) {
+            case "small":
+                return ClassFixtures.resource("site/jiyang/Version.class");
+            case "medium":
+                return ClassFixtures.resource("java/lang/String.class");
+            case "large-pool":
+                return ClassFixtures.largeConstantPool();
+            case "large-method":
+                return ClassFixtures.largeMethod();
+            default:
+                throw new IllegalArgumentException(fixture);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class JdkModule {
+        @Param({"java.base"})
+        public String module;
+
+        @Param({"all", "hierarchy"})
+        public String sections;
+
+        List<ByteBuffer> classes;
+        int options;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            options = ParseOptions.parse(sections);
+            classes = ClassFixtures.jdkModule(module);
+        }
+    }
+
+    @Benchmark
+    public ClassFile parse(SingleClass state) {
+        return new BytecodeParser(state.options).read(state.bytes);
+    }
+
+    /**
+     * 解析一个类之后遍历所有方法的所有指令
+     */
+    @Benchmark
+    public void scanInstructions(CodeClass state, Blackhole blackhole) {
+        ClassFile classFile = new BytecodeParser(ParseOptions.ALL).read(state.bytes);
+        InstructionCursor cursor = new InstructionCursor();
+        for (FieldOrMethod.Entity method : classFile.methods.entities()) {
+            CodeInfo code = method.code();
+            if (code == null) {
+                continue;
+            }
+            code.cursor(cursor);
+            while (cursor.next()) {
+                blackhole.consume(cursor.opcode());
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public void parseModule(JdkModule state, Blackhole blackhole) {
+        BytecodeParser parser = new BytecodeParser(state.options);
+        for (ByteBuffer bytes : state.classes) {
+            blackhole.consume(parser.read(bytes));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package site.jiyang;
+
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BatchParser#stress} 的回归测试, 与 --stress 相同:
+ * 把 java.base 中的类文件复制到临时目录, 先顺序解析一遍作为基准, 再在线程池中并发解析, 每个类的结果都要和基准相同
+ */
+class StressTest {
+    private static final String MODULE = "java.base";
+    private static final int ROUNDS = 4;
+
+    @TempDir
+    static Path corpus;
+    private static int classes;
+
+    @BeforeAll
+    static void copyModule() throws IOException {
+        Path root = FileSystems.getFileSystem(URI.create("jrt:/")).getPath("modules", MODULE);
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (!path.toString().endsWith(".class")) {
+                    continue;
+                }
+                Path target = corpus.resolve(root.relativize(path).toString());
+                Files.createDirectories(target.getParent());
+                Files.copy(path, target);
+                classes++;
+            }
+        }
+    }
+
+    @Test
+    void concurrentResultsEqualSequential() throws IOException {
+        assertTrue(classes > 1000, "Expected the whole " + MODULE + " module, got " + classes + " classes");
+        BatchParser batchParser = new BatchParser(ParseOptions.ALL);
+        try {
+            List<BatchParser.Failure> failures =
+                    batchParser.stress(Collections.singletonList(corpus.toString()), ROUNDS);
+            assertEquals(Collections.emptyList(), failures);
+        } finally {
+            batchParser.shutdown();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package site.jiyang;
 
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 class AccessFlags extends Section {
@@ -17,8 +18,8 @@ class AccessFlags extends Section {
 
     private int accessFlags;
 
-    public AccessFlags(int start, byte[] bytes) {
-        super(start, bytes);
+    public AccessFlags(ParseContext context, int start, ByteBuffer bytes) {
+        super(context, start, bytes);
     }
 
     @Override
@@ -1,6 +1,6 @@
 package site.jiyang;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -18,27 +18,33 @@ class AttributeInfo implements Parsable {
     private Info mInfo;
 
     @Override
-    public void parse(byte[] bytes, int offset) {
+    public void parse(ParseContext context, ByteBuffer bytes, int offset) {
         nameIndex = Utils.read2Number(bytes, offset);
         offset += 2;
         attributeLength = Utils.read4Number(bytes, offset);
         offset += 4;
-        // 根据属性名称找到匹配的属性
-        ConstantItem constantItem = BytecodeParser.constantItemHashMap.get(nameIndex);
-        UTF8 utf8 = (UTF8) constantItem;
-        String infoName = utf8.value;
-        mInfo = Info.getMatchInfo(infoName);
-        if (mInfo == null) {
-            System.err.println("Not found matching Attributes: " + infoName);
+        // 根据属性名称的种类找到匹配的属性, 未知的属性和不需要的属性都不解析, 由 size() 根据 attribute_length 跳过
+        int kind = context.constantPool.attributeKind(nameIndex);
+        if (kind == AttributeKind.UNKNOWN || !context.decodeAttribute(kind)) {
             return;
         }
-        mInfo.parse(bytes, offset);
+        mInfo = AttributeKind.newInfo(kind);
+        if (mInfo != null) {
+            mInfo.parse(context, bytes, offset);
+        }
     }
 
     public int size() {
         return 2 + 4 + attributeLength;
     }
 
+    /**
+     * 解析出的属性内容, 属性未知或者没有选择解析时为 null
+     */
+    Info info() {
+        return mInfo;
+    }
+
     @Override
     public String toString() {
         return "AttributeInfo{" +
@@ -50,50 +56,24 @@ class AttributeInfo implements Parsable {
 }
 
 abstract class Info implements Parsable {
+    /**
+     * 所属类的解析上下文, toString 时需要查找常量池
+     */
+    ParseContext context;
+
     public int size() {
         return contentSize();
     }
 
     abstract protected int contentSize();
 
-    abstract public void parseInner(byte[] bytes, int offset);
+    abstract public void parseInner(ByteBuffer bytes, int offset);
 
     @Override
-    public void parse(byte[] bytes, int offset) {
+    public void parse(ParseContext context, ByteBuffer bytes, int offset) {
+        this.context = context;
         parseInner(bytes, offset);
     }
-
-    public static Info getMatchInfo(String name) {
-        switch (name) {
-            case "Code":
-                return new CodeInfo();
-            case "ConstantValue":
-                return new ConstantValue();
-            case "Exceptions":
-                return new Exceptions();
-            case "LineNumberTable":
-                return new LineNumberTable();
-            case "LocalVariableTable":
-                return new LocalVariableTable();
-            case "LocalVariableTypeTable":
-                return new LocalVariableTypeTable();
-            case "SourceFile":
-                return new SourceFile();
-            case "InnerClasses":
-                return new InnerClasses();
-            case "Deprecated":
-                return new Deprecated();
-            case "Synthetic":
-                return new Synthetic();
-            case "StackMapTable":
-                // TODO StackMapTable 待实现
-                return null;
-            case "Signature":
-                return new Signature();
-            default:
-                return null;
-        }
-    }
 }
 
 //region Info
@@ -131,7 +111,7 @@ class CodeInfo extends Info {
         }
 
         @Override
-        public void parse(byte[] bytes, int offset) {
+        public void parse(ParseContext context, ByteBuffer bytes, int offset) {
             startPc = Utils.read2Number(bytes, offset);
             offset += 2;
             endPc = Utils.read2Number(bytes, offset);
@@ -155,13 +135,13 @@ class CodeInfo extends Info {
     int maxStack; //u2
     int maxLocals; //u2
     int codeLength; //u4
-    int[] code; // u1[codeLength]
     int exceptionTableLength; //u2
     ExceptionTable[] exceptionTable;
     int attributeCount; //u2
     AttributeInfo[] attributes;
 
-    private ArrayList<Instruction> mInstructions = new ArrayList<>(); // store code to instruction
+    private ByteBuffer bytes;
+    private int codeStart; // code[] 在类文件中的起始位置, 不复制 code[], 通过 cursor() 遍历指令
 
     private int attributesSize;
 
@@ -171,24 +151,22 @@ class CodeInfo extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         maxStack = Utils.read2Number(bytes, offset);
         offset += 2;
         maxLocals = Utils.read2Number(bytes, offset);
         offset += 2;
         codeLength = Utils.read4Number(bytes, offset);
         offset += 4;
-        code = new int[codeLength];
-        for (int i = 0; i < codeLength; i++) {
-            code[i] = Utils.readUnsignedByte(bytes, offset);
-            offset += 1;
-        }
+        this.bytes = bytes;
+        codeStart = offset;
+        offset += codeLength;
         exceptionTableLength = Utils.read2Number(bytes, offset);
         offset += 2;
         exceptionTable = new ExceptionTable[exceptionTableLength];
         for (int i = 0; i < exceptionTableLength; i++) {
             exceptionTable[i] = new ExceptionTable();
-            exceptionTable[i].parse(bytes, offset);
+            exceptionTable[i].parse(context, bytes, offset);
             offset += exceptionTable[i].size();
         }
         attributeCount = Utils.read2Number(bytes, offset);
@@ -196,23 +174,52 @@ class CodeInfo extends Info {
         attributes = new AttributeInfo[attributeCount];
         for (int i = 0; i < attributeCount; i++) {
             attributes[i] = new AttributeInfo();
-            attributes[i].parse(bytes, offset);
+            attributes[i].parse(context, bytes, offset);
             offset += attributes[i].size();
             attributesSize += attributes[i].size();
         }
 
-        int step = 0;
-        for (int i = 0; i < code.length; ) {
-            int opcode = code[i];
-            Instruction instruction = Instruction.findInstructionByOpcode(opcode);
-            if (instruction == null) {
-                break;
+    }
+
+    /**
+     * 遍历这个方法所有指令的 cursor
+     */
+    InstructionCursor cursor() {
+        return new InstructionCursor(bytes, codeStart, codeLength);
+    }
+
+    /**
+     * 复用已有的 cursor 遍历这个方法的指令, 遍历大量方法时不产生垃圾
+     */
+    InstructionCursor cursor(InstructionCursor reuse) {
+        return reuse.reset(bytes, codeStart, codeLength);
+    }
+
+    private String codeToString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < codeLength; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(Utils.readUnsignedByte(bytes, codeStart + i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private String instructionsToString() {
+        StringBuilder sb = new StringBuilder("[");
+        InstructionCursor cursor = cursor();
+        while (cursor.next()) {
+            if (sb.length() > 1) {
+                sb.append(", ");
             }
-            instruction.parse(bytes, offset + step);
-            mInstructions.add(instruction);
-            step = instruction.size();
-            i += step;
+            Instruction.print(sb, cursor);
         }
+        if (!cursor.atEnd()) {
+            System.err.println("Not found instruction for opcode "
+                    + Utils.readUnsignedByte(bytes, codeStart + cursor.pc() + cursor.length()));
+        }
+        return sb.append(']').toString();
     }
 
     @Override
@@ -221,12 +228,12 @@ class CodeInfo extends Info {
                 "maxStack=" + maxStack +
                 ", maxLocals=" + maxLocals +
                 ", codeLength=" + codeLength +
-                ", code=" + Arrays.toString(code) +
+                ", code=" + codeToString() +
                 ", exceptionTableLength=" + exceptionTableLength +
                 ", exceptionTable=" + Arrays.toString(exceptionTable) +
                 ", attributeCount=" + attributeCount +
                 ", attributes=" + Arrays.toString(attributes) +
-                ", mInstructions=" + mInstructions +
+                ", instructions=" + instructionsToString() +
                 ", attributesSize=" + attributesSize +
                 '}';
     }
@@ -236,7 +243,7 @@ class ConstantValue extends Info {
     int constantValueIndex; //u2
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         constantValueIndex = Utils.read2Number(bytes, offset + 2);
     }
 
@@ -273,7 +280,7 @@ class Exceptions extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         numberOfExceptions = Utils.read2Number(bytes, offset);
         offset += 2;
         exceptionIndexTable = new int[numberOfExceptions];
@@ -313,7 +320,7 @@ class LineNumberTable extends Info {
         public static final int size = 4;
 
         @Override
-        public void parse(byte[] bytes, int offset) {
+        public void parse(ParseContext context, ByteBuffer bytes, int offset) {
             startPc = Utils.read2Number(bytes, offset);
             offset += 2;
             lineNumber = Utils.read2Number(bytes, offset);
@@ -337,13 +344,13 @@ class LineNumberTable extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         lineNumberTableLength = Utils.read2Number(bytes, offset);
         offset += 2;
         mLineNumberInfos = new LineNumberInfo[lineNumberTableLength];
         for (int i = 0; i < lineNumberTableLength; i++) {
             mLineNumberInfos[i] = new LineNumberInfo();
-            mLineNumberInfos[i].parse(bytes, offset);
+            mLineNumberInfos[i].parse(context, bytes, offset);
             offset += LineNumberInfo.size;
         }
     }
@@ -384,7 +391,7 @@ class LocalVariableTable extends Info {
         public static final int size = 10;
 
         @Override
-        public void parse(byte[] bytes, int offset) {
+        public void parse(ParseContext context, ByteBuffer bytes, int offset) {
             startPc = Utils.read2Number(bytes, offset);
             length = Utils.read2Number(bytes, offset + 2);
             nameIndex = Utils.read2Number(bytes, offset + 2);
@@ -413,13 +420,13 @@ class LocalVariableTable extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         localVariableTableLength = Utils.read2Number(bytes, offset);
         offset += 2;
         items = new LocalVairableTableItem[localVariableTableLength];
         for (int i = 0; i < localVariableTableLength; i++) {
             items[i] = new LocalVairableTableItem();
-            items[i].parse(bytes, offset);
+            items[i].parse(context, bytes, offset);
             offset += LocalVairableTableItem.size;
         }
     }
@@ -452,14 +459,14 @@ class SourceFile extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         sourceFileIndex = Utils.read2Number(bytes, offset);
     }
 
     @Override
     public String toString() {
         return "SourceFile{" +
-                "sourceFileIndex=" + sourceFileIndex + " -> " + ((UTF8) BytecodeParser.constantItemHashMap.get(sourceFileIndex)).value +
+                "sourceFileIndex=" + sourceFileIndex + " -> " + context.utf8(sourceFileIndex) +
                 '}';
     }
 }
@@ -486,7 +493,7 @@ class InnerClasses extends Info {
         public static final int size = 8;
 
         @Override
-        public void parse(byte[] bytes, int offset) {
+        public void parse(ParseContext context, ByteBuffer bytes, int offset) {
             innerClassInfoIndex = Utils.read2Number(bytes, offset);
             offset += 2;
             outerClassInfoIndex = Utils.read2Number(bytes, offset);
@@ -501,7 +508,7 @@ class InnerClasses extends Info {
             return "Classes{" +
                     "innerClassInfoIndex=" + innerClassInfoIndex +
                     ", outerClassInfoIndex=" + outerClassInfoIndex +
-                    ", innerNameInex=" + innerNameInex + " -> " + ((UTF8) BytecodeParser.constantItemHashMap.get(innerNameInex)).value +
+                    ", innerNameInex=" + innerNameInex + " -> " + context.utf8(innerNameInex) +
                     ", innerClassAccessFlags=" + innerClassAccessFlags + " -> " + AccessFlags.printAccess(innerClassAccessFlags) +
                     '}';
         }
@@ -516,13 +523,13 @@ class InnerClasses extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         numberOfClasses = Utils.read2Number(bytes, offset);
         offset += 2;
         mClasses = new Classes[numberOfClasses];
         for (int i = 0; i < numberOfClasses; i++) {
             mClasses[i] = new Classes();
-            mClasses[i].parse(bytes, offset);
+            mClasses[i].parse(context, bytes, offset);
             offset += Classes.size;
         }
     }
@@ -555,20 +562,20 @@ class Signature extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         signatureIndex = Utils.read2Number(bytes, offset);
     }
 
     @Override
     public String toString() {
-        ConstantItem constantItem = BytecodeParser.constantItemHashMap.get(signatureIndex);
+        ConstantItem constantItem = context.constantItem(signatureIndex);
         String signature = constantItem.toString();
         if (constantItem instanceof UTF8) {
-            signature = ((UTF8) constantItem).value;
+            signature = ((UTF8) constantItem).value();
         } else if (constantItem instanceof METHOD_REF) {
             signature = constantItem.toString();
         } else if (constantItem instanceof STRING) {
-            signature = ((UTF8) BytecodeParser.constantItemHashMap.get(((STRING) constantItem).index)).value;
+            signature = context.utf8(((STRING) constantItem).index);
         }
         return "Signature{" +
                 "signatureIndex=" + signatureIndex + " -> " + signature +
@@ -587,69 +594,241 @@ class Signature extends Info {
  * }
  *
  * union stack_map_frame {
- *     same_frame;
- *     same_locals_1_stack_item_frame;
- *     same_locals_1_stack_item_frame_extended;
- *     chop_frame;
- *     same_frame_extended;
- *     append_frame;
- *     full_frame;
+ *     same_frame;                               // frame_type 0-63, offset_delta = frame_type
+ *     same_locals_1_stack_item_frame;           // 64-127, offset_delta = frame_type - 64, stack[1]
+ *     same_locals_1_stack_item_frame_extended;  // 247, u2 offset_delta, stack[1]
+ *     chop_frame;                               // 248-250, u2 offset_delta, 去掉最后 251 - frame_type 个局部变量
+ *     same_frame_extended;                      // 251, u2 offset_delta
+ *     append_frame;                             // 252-254, u2 offset_delta, locals[frame_type - 251]
+ *     full_frame;                               // 255, u2 offset_delta, u2 number_of_locals, locals[],
+ *                                               //      u2 number_of_stack_items, stack[]
+ * }
+ *
+ * union verification_type_info {
+ *     u1 tag; // 0 Top, 1 Integer, 2 Float, 3 Double, 4 Long, 5 Null, 6 UninitializedThis,
+ *             // 7 Object 之后跟 u2 cpool_index, 8 Uninitialized 之后跟 u2 offset
  * }
  * </pre>
+ * 大方法的帧很多, 所以不为每个帧和类型创建对象, 而是存放在几个数组中:
+ * <pre>
+ * frameTypes[i]                          第 i 个帧的 frame_type
+ * offsetDeltas[i]                        第 i 个帧的 offset_delta(u2 用 char 存放)
+ * types[typeStart[i] .. typeStart[i + 1]) 第 i 个帧中出现的 verification_type_info, 每个压缩为一个 int:
+ *                                        低 8 位是 tag, 高 16 位是 cpool_index 或 offset
+ * localCounts[i]                         其中前几个是局部变量, 之后的是操作数栈
+ * </pre>
+ * 帧的绝对位置和可读的形式只在需要时才计算, 见 {@link #offset(int)} 和 {@link #frameToString(int)}
  */
 class StackMapTable extends Info {
+    static final int ITEM_TOP = 0, ITEM_INTEGER = 1, ITEM_FLOAT = 2, ITEM_DOUBLE = 3, ITEM_LONG = 4,
+            ITEM_NULL = 5, ITEM_UNINITIALIZED_THIS = 6, ITEM_OBJECT = 7, ITEM_UNINITIALIZED = 8;
+    private static final String[] ITEM_NAMES = {
+            "top", "int", "float", "double", "long", "null", "uninitializedThis", "Object", "uninitialized"};
 
-    class StackMapFrame {
-        /**
-         * <pre>
-         * same_frame {
-         *     u1 frame_type = SAME; // 0-63
-         * }
-         * </pre>
-         */
-        class SameFrame {
-            int frame_type; //u1
-        }
+    static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+    static final int SAME_FRAME_EXTENDED = 251;
+    static final int FULL_FRAME = 255;
 
-        /**
-         * <pre>
-         * same_locals_1_stack_item_frame {
-         *     u1 frame_type = SAME_LOCALS_1_STACK_ITEM; // 64-127
-         *     verification_type_info stack[1];
-         * }
-         * </pre>
-         */
-        class SameLocals1StackItemFrame {
-        }
+    int numberOfEntries; //u2
 
-        class SameLocals1StackItemFrameExtended {
-        }
+    private int contentSize;
+    private byte[] frameTypes;
+    private char[] offsetDeltas;
+    private char[] localCounts;
+    private int[] typeStart;
+    private int[] types;
+    private int[] offsets;
 
-        class ChopFrame {
-        }
+    @Override
+    protected int contentSize() {
+        return contentSize;
+    }
 
-        class SameFrameExtended {
+    @Override
+    public void parseInner(ByteBuffer bytes, int offset) {
+        int start = offset;
+        numberOfEntries = Utils.read2Number(bytes, offset);
+        offset += 2;
+        frameTypes = new byte[numberOfEntries];
+        offsetDeltas = new char[numberOfEntries];
+        localCounts = new char[numberOfEntries];
+        typeStart = new int[numberOfEntries + 1];
+        types = new int[Math.max(4, numberOfEntries)];
+        int typeCount = 0;
+        for (int i = 0; i < numberOfEntries; i++) {
+            int frameType = Utils.readUnsignedByte(bytes, offset);
+            offset++;
+            frameTypes[i] = (byte) frameType;
+            typeStart[i] = typeCount;
+            int locals = 0, stack = 0;
+            if (frameType < 64) {
+                offsetDeltas[i] = (char) frameType;
+            } else if (frameType < 128) {
+                offsetDeltas[i] = (char) (frameType - 64);
+                stack = 1;
+            } else if (frameType < SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                throw new IllegalArgumentException("Unknown stack map frame type: " + frameType);
+            } else {
+                offsetDeltas[i] = (char) Utils.read2Number(bytes, offset);
+                offset += 2;
+                if (frameType == SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                    stack = 1;
+                } else if (frameType > SAME_FRAME_EXTENDED && frameType < FULL_FRAME) {
+                    locals = frameType - SAME_FRAME_EXTENDED;
+                } else if (frameType == FULL_FRAME) {
+                    locals = Utils.read2Number(bytes, offset);
+                    offset += 2;
+                    // full_frame 的 number_of_stack_items 在局部变量之后, 读完局部变量后再读
+                    stack = -1;
+                }
+            }
+            for (int j = 0; j < locals; j++) {
+                offset = readType(bytes, offset, typeCount++);
+            }
+            if (stack < 0) {
+                stack = Utils.read2Number(bytes, offset);
+                offset += 2;
+            }
+            for (int j = 0; j < stack; j++) {
+                offset = readType(bytes, offset, typeCount++);
+            }
+            localCounts[i] = (char) locals;
+        }
+        typeStart[numberOfEntries] = typeCount;
+        if (types.length != typeCount) {
+            types = Arrays.copyOf(types, typeCount);
         }
+        contentSize = offset - start;
+    }
 
-        class AppendFrame {
+    /**
+     * 读取一个 verification_type_info, 压缩后放在 types[index]
+     *
+     * @return 之后的位置
+     */
+    private int readType(ByteBuffer bytes, int offset, int index) {
+        if (index == types.length) {
+            types = Arrays.copyOf(types, index * 2);
+        }
+        int tag = Utils.readUnsignedByte(bytes, offset);
+        if (tag == ITEM_OBJECT || tag == ITEM_UNINITIALIZED) {
+            types[index] = tag | (Utils.read2Number(bytes, offset + 1) << 8);
+            return offset + 3;
+        }
+        if (tag > ITEM_UNINITIALIZED) {
+            throw new IllegalArgumentException("Unknown verification type: " + tag);
         }
+        types[index] = tag;
+        return offset + 1;
+    }
+
+    int frameType(int i) {
+        return frameTypes[i] & 0xFF;
+    }
 
-        class FullFrame {
+    /**
+     * 第 i 个帧对应的字节码位置: 第一个帧为 offset_delta, 之后为前一个帧的位置 + offset_delta + 1
+     */
+    int offset(int i) {
+        if (offsets == null) {
+            int[] computed = new int[numberOfEntries];
+            int previous = -1;
+            for (int j = 0; j < numberOfEntries; j++) {
+                previous += offsetDeltas[j] + 1;
+                computed[j] = previous;
+            }
+            offsets = computed;
         }
+        return offsets[i];
     }
 
-    int numberOfEntries; //u2
+    /**
+     * 第 i 个帧中新增(append_frame)或者完整列出(full_frame)的局部变量个数
+     */
+    int localCount(int i) {
+        return localCounts[i];
+    }
+
+    int stackCount(int i) {
+        return typeStart[i + 1] - typeStart[i] - localCounts[i];
+    }
 
-    private StackMapFrame[] mStackMapFrames;
+    /**
+     * 第 i 个帧的第 j 个类型, 局部变量在前, 操作数栈在后, 压缩的形式见类注释
+     */
+    int type(int i, int j) {
+        return types[typeStart[i] + j];
+    }
 
-    @Override
-    protected int contentSize() {
-        return 0;
+    static int typeTag(int type) {
+        return type & 0xFF;
     }
 
-    @Override
-    public void parseInner(byte[] bytes, int offset) {
+    /**
+     * Object 类型的 cpool_index 或者 Uninitialized 类型的 offset
+     */
+    static int typeValue(int type) {
+        return type >>> 8;
+    }
 
+    String frameToString(int i) {
+        int frameType = frameType(i);
+        StringBuilder sb = new StringBuilder();
+        if (frameType < 64) {
+            sb.append("same");
+        } else if (frameType < 128 || frameType == SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+            sb.append("same_locals_1_stack_item");
+        } else if (frameType < SAME_FRAME_EXTENDED) {
+            sb.append("chop ").append(SAME_FRAME_EXTENDED - frameType);
+        } else if (frameType == SAME_FRAME_EXTENDED) {
+            sb.append("same");
+        } else if (frameType < FULL_FRAME) {
+            sb.append("append");
+        } else {
+            sb.append("full");
+        }
+        sb.append(" @").append(offset(i));
+        int locals = localCount(i);
+        if (locals > 0 || frameType == FULL_FRAME) {
+            appendTypes(sb.append(" locals="), i, 0, locals);
+        }
+        int stack = stackCount(i);
+        if (stack > 0 || frameType == FULL_FRAME) {
+            appendTypes(sb.append(" stack="), i, locals, locals + stack);
+        }
+        return sb.toString();
+    }
+
+    private void appendTypes(StringBuilder sb, int i, int from, int to) {
+        sb.append('[');
+        for (int j = from; j < to; j++) {
+            if (j > from) {
+                sb.append(", ");
+            }
+            int type = type(i, j);
+            int tag = typeTag(type);
+            if (tag == ITEM_OBJECT) {
+                String name = context == null ? null : context.className(typeValue(type));
+                sb.append(name == null ? "#" + typeValue(type) : name);
+            } else if (tag == ITEM_UNINITIALIZED) {
+                sb.append("uninitialized@").append(typeValue(type));
+            } else {
+                sb.append(ITEM_NAMES[tag]);
+            }
+        }
+        sb.append(']');
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("StackMapTable{numberOfEntries=").append(numberOfEntries).append(", frames=[");
+        for (int i = 0; i < numberOfEntries; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(frameToString(i));
+        }
+        return sb.append("]}").toString();
     }
 }
 
@@ -669,8 +848,13 @@ class Synthetic extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
+
+    }
 
+    @Override
+    public String toString() {
+        return "Synthetic{}";
     }
 }
 
@@ -689,9 +873,14 @@ class Deprecated extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
 
     }
+
+    @Override
+    public String toString() {
+        return "Deprecated{}";
+    }
 }
 
 
@@ -722,7 +911,7 @@ class LocalVariableTypeTable extends Info {
         public static final int size = 10;
 
         @Override
-        public void parse(byte[] bytes, int offset) {
+        public void parse(ParseContext context, ByteBuffer bytes, int offset) {
             start_pc = Utils.read2Number(bytes, offset);
             length = Utils.read2Number(bytes, offset + 2);
             name_index = Utils.read2Number(bytes, offset + 4);
@@ -751,13 +940,13 @@ class LocalVariableTypeTable extends Info {
     }
 
     @Override
-    public void parseInner(byte[] bytes, int offset) {
+    public void parseInner(ByteBuffer bytes, int offset) {
         lvtt_length = Utils.read2Number(bytes, offset);
         offset += 2;
         mTables = new Local_variable_type_table[lvtt_length];
         for (int i = 0; i < lvtt_length; i++) {
             mTables[i] = new Local_variable_type_table();
-            mTables[i].parse(bytes, offset);
+            mTables[i].parse(context, bytes, offset);
             offset += Local_variable_type_table.size;
         }
     }
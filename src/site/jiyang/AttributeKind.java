@@ -0,0 +1,95 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 已知属性的种类
+ * 每个类的常量池中作为属性名的 Utf8 常量第一次用到时按字节匹配一次, 结果记录在 {@link ConstantPool#attributeKind(int)} 中,
+ * 之后分派属性只需要一次数组查找, 不需要解码字符串, 也不需要字符串 switch
+ */
+final class AttributeKind {
+    static final int UNKNOWN = 0;
+    static final int CODE = 1;
+    static final int CONSTANT_VALUE = 2;
+    static final int EXCEPTIONS = 3;
+    static final int LINE_NUMBER_TABLE = 4;
+    static final int LOCAL_VARIABLE_TABLE = 5;
+    static final int LOCAL_VARIABLE_TYPE_TABLE = 6;
+    static final int SOURCE_FILE = 7;
+    static final int INNER_CLASSES = 8;
+    static final int DEPRECATED = 9;
+    static final int SYNTHETIC = 10;
+    static final int STACK_MAP_TABLE = 11;
+    static final int SIGNATURE = 12;
+
+    private static final String[] NAMES = {
+            null,
+            "Code",
+            "ConstantValue",
+            "Exceptions",
+            "LineNumberTable",
+            "LocalVariableTable",
+            "LocalVariableTypeTable",
+            "SourceFile",
+            "InnerClasses",
+            "Deprecated",
+            "Synthetic",
+            "StackMapTable",
+            "Signature",
+    };
+
+    private AttributeKind() {
+    }
+
+    /**
+     * bytes 中 [offset, offset + length) 的 Modified UTF-8 字节表示的属性名的种类, 先比较长度再比较字节
+     */
+    static int of(ByteBuffer bytes, int offset, int length) {
+        for (int kind = 1; kind < NAMES.length; kind++) {
+            // 这些属性名都是 ASCII, 字节数等于字符数
+            if (NAMES[kind].length() == length && ModifiedUtf8.equals(bytes, offset, length, NAMES[kind])) {
+                return kind;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    static String name(int kind) {
+        return NAMES[kind];
+    }
+
+    /**
+     * 创建解析 kind 属性内容的 Info, 未知或者还没有实现的属性返回 null
+     */
+    static Info newInfo(int kind) {
+        switch (kind) {
+            case CODE:
+                return new CodeInfo();
+            case CONSTANT_VALUE:
+                return new ConstantValue();
+            case EXCEPTIONS:
+                return new Exceptions();
+            case LINE_NUMBER_TABLE:
+                return new LineNumberTable();
+            case LOCAL_VARIABLE_TABLE:
+                return new LocalVariableTable();
+            case LOCAL_VARIABLE_TYPE_TABLE:
+                return new LocalVariableTypeTable();
+            case SOURCE_FILE:
+                return new SourceFile();
+            case INNER_CLASSES:
+                return new InnerClasses();
+            case DEPRECATED:
+                return new Deprecated();
+            case SYNTHETIC:
+                return new Synthetic();
+            case STACK_MAP_TABLE:
+                return new StackMapTable();
+            case SIGNATURE:
+                return new Signature();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package site.jiyang;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * 批量模式: 解析目录, jar 包和 classpath 下的所有类文件
+ * 使用 fork-join 线程池并行解析, 单个文件解析失败不会中断整个任务
+ */
+final class BatchParser {
+
+    /**
+     * 每个子任务最多直接解析的类文件数, 超过则继续拆分
+     */
+    private static final int THRESHOLD = 16;
+
+    static final class Failure {
+        final String name;
+        final Throwable error;
+
+        Failure(String name, Throwable error) {
+            this.name = name;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + error;
+        }
+    }
+
+    static final class Result {
+        final long classes;
+        final long bytes;
+        final long elapsedNanos;
+        final List<Failure> failures;
+
+        Result(long classes, long bytes, long elapsedNanos, List<Failure> failures) {
+            this.classes = classes;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.failures = failures;
+        }
+
+        double classesPerSecond() {
+            return elapsedNanos == 0 ? 0 : classes * 1e9 / elapsedNanos;
+        }
+
+        double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes / (1024.0 * 1024.0) * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Parsed %d classes (%.2f MB) in %.1f ms, %.0f classes/s, %.2f MB/s, %d failures",
+                    classes, bytes / (1024.0 * 1024.0), elapsedNanos / 1e6,
+                    classesPerSecond(), megabytesPerSecond(), failures.size());
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int options;
+    private String format;
+    private WritableByteChannel output;
+    private ParseCache cache;
+    private ClassCache classCache;
+    private SymbolTable symbols;
+
+    /**
+     * @param options 每个类需要解析的部分, 见 {@link ParseOptions}
+     */
+    BatchParser(int parallelism, int options) {
+        this(new ForkJoinPool(parallelism), options);
+    }
+
+    /**
+     * 使用已有的线程池, 多个 BatchParser 可以共享同一个线程池, 这时不要调用 {@link #shutdown()}
+     */
+    BatchParser(ForkJoinPool pool, int options) {
+        this.pool = pool;
+        this.options = options;
+    }
+
+    BatchParser(int options) {
+        this(Runtime.getRuntime().availableProcessors(), options);
+    }
+
+    BatchParser() {
+        this(ParseOptions.ALL);
+    }
+
+    /**
+     * 把每个类的结构写入 output, 而不是只构建 {@link ClassFile}
+     * 每个线程使用自己的 {@link OutputBuffer}, 以整条记录为单位写入 output
+     *
+     * @param format 见 {@link OutputSink#create(String, OutputBuffer)}
+     */
+    BatchParser output(String format, WritableByteChannel output) {
+        this.format = format;
+        this.output = output;
+        return this;
+    }
+
+    /**
+     * 命中缓存的类文件不再解析, 也不读取内容; 只用于默认模式和 binary 格式, 因为缓存的记录中没有常量池
+     * cache 应该和这里使用相同的 options 创建
+     */
+    BatchParser cache(ParseCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * 默认模式下先在进程内的缓存中查找, 同一个 BatchParser 多次运行时使用
+     */
+    BatchParser classCache(ClassCache classCache) {
+        this.classCache = classCache;
+        return this;
+    }
+
+    /**
+     * 所有类共享同一个符号表, 相同的字符串只解码和保存一次. 需要保留所有类的结果时使用
+     */
+    BatchParser symbols(SymbolTable symbols) {
+        this.symbols = symbols;
+        return this;
+    }
+
+    Result run(List<String> paths) throws IOException {
+        ConcurrentLinkedQueue<OutputSink> sinks = new ConcurrentLinkedQueue<>();
+        ThreadLocal<OutputSink> sink = ThreadLocal.withInitial(() -> {
+            OutputSink created = OutputSink.create(format, new OutputBuffer(output));
+            sinks.add(created);
+            return created;
+        });
+        Result result;
+        if (cache != null && !"jsonl".equals(format)) {
+            // 记录在缓存中已经编码好, 直接写出
+            result = eachInput(paths, (index, input) -> {
+                byte[] record = cache.record(input);
+                if (format != null) {
+                    OutputBuffer out = sink.get().out;
+                    out.putBytes(record);
+                    out.endRecord();
+                }
+                return input.size();
+            });
+        } else if (format == null) {
+            // 有进程内缓存时先按位置和版本查找, 命中时不读取类文件
+            result = eachInput(paths, (index, input) -> {
+                new BytecodeParser(options, classCache, symbols).read(input);
+                return input.size();
+            });
+        } else {
+            result = each(paths, buff -> {
+                OutputSink current = sink.get();
+                try {
+                    new BytecodeParser(options, null, symbols).accept(buff, current);
+                } catch (RuntimeException | StackOverflowError e) {
+                    current.out.discardRecord();
+                    throw e;
+                }
+            });
+        }
+        for (OutputSink each : sinks) {
+            each.out.flush();
+        }
+        return result;
+    }
+
+    /**
+     * 用 {@link ClassReader} 读取所有类文件, 每个线程使用 visitors 创建的一个 visitor,
+     * 按构造时的 options 回调需要的部分
+     */
+    Result accept(List<String> paths, Supplier<? extends ClassVisitor> visitors) throws IOException {
+        ThreadLocal<ClassVisitor> visitor = ThreadLocal.withInitial(visitors);
+        return each(paths, buff -> new ClassReader(buff, symbols).accept(visitor.get(), options));
+    }
+
+    /**
+     * 和 {@link #accept(List, Supplier)} 相同, 但每个类文件使用 visitors 新建一个 visitor,
+     * 参数是类文件在 paths 中的序号(按 classpath 的顺序), 需要按 classpath 顺序处理同名的类时使用
+     */
+    Result accept(List<String> paths, IntFunction<? extends ClassVisitor> visitors) throws IOException {
+        return eachInput(paths, (index, input) -> {
+            ByteBuffer buff = input.read();
+            new ClassReader(buff, symbols).accept(visitors.apply(index), options);
+            return buff.remaining();
+        });
+    }
+
+    /**
+     * 在线程池中对每个类文件执行 action, 失败的类文件记录在结果中
+     */
+    private Result each(List<String> paths, Consumer<ByteBuffer> action) throws IOException {
+        return eachInput(paths, (index, input) -> {
+            ByteBuffer buff = input.read();
+            action.accept(buff);
+            return buff.remaining();
+        });
+    }
+
+    /**
+     * 处理一个类文件, 可以不读取内容
+     */
+    private interface InputAction {
+        /**
+         * @param index 类文件在 paths 中的序号, 按 classpath 的顺序
+         * @return 类文件的字节数
+         */
+        long accept(int index, ClassInput input) throws IOException;
+    }
+
+    private Result eachInput(List<String> paths, InputAction action) throws IOException {
+        List<ClassInput> inputs = new ArrayList<>();
+        List<Closeable> opened = new ArrayList<>();
+        try {
+            for (String path : paths) {
+                ClassInput.collect(path, inputs, opened);
+            }
+            LongAdder classes = new LongAdder();
+            LongAdder bytes = new LongAdder();
+            ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+            long begin = System.nanoTime();
+            pool.invoke(new EachTask(0, inputs.size(), i -> {
+                ClassInput input = inputs.get(i);
+                try {
+                    long size = action.accept(i, input);
+                    classes.increment();
+                    bytes.add(size);
+                } catch (Exception | StackOverflowError e) {
+                    failures.add(new Failure(input.name, e));
+                }
+            }));
+            long elapsed = System.nanoTime() - begin;
+            return new Result(classes.sum(), bytes.sum(), elapsed,
+                    Collections.unmodifiableList(new ArrayList<>(failures)));
+        } finally {
+            close(opened);
+        }
+    }
+
+    /**
+     * 并发压力校验: 先顺序解析一遍所有类文件作为基准, 再在线程池中把每个类并发解析 rounds 遍,
+     * 结果和基准不一致的类文件作为失败返回
+     */
+    List<Failure> stress(List<String> paths, int rounds) throws IOException {
+        List<ClassInput> inputs = new ArrayList<>();
+        List<Closeable> opened = new ArrayList<>();
+        try {
+            for (String path : paths) {
+                ClassInput.collect(path, inputs, opened);
+            }
+            int count = inputs.size();
+            ByteBuffer[] contents = new ByteBuffer[count];
+            String[] expected = new String[count];
+            for (int i = 0; i < count; i++) {
+                contents[i] = inputs.get(i).read();
+                expected[i] = describe(contents[i], null);
+            }
+            // 并发解析时共享一个符号表, 同时校验符号表在并发下的结果
+            SymbolTable symbols = new SymbolTable();
+            ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+            pool.invoke(new EachTask(0, count * rounds, i -> {
+                int index = i % count;
+                if (!expected[index].equals(describe(contents[index], symbols))) {
+                    failures.add(new Failure(inputs.get(index).name,
+                            new IllegalStateException("Concurrent result differs from sequential result")));
+                }
+            }));
+            return new ArrayList<>(failures);
+        } finally {
+            close(opened);
+        }
+    }
+
+    /**
+     * 比较两次构建的类文件, 按相对路径(见 {@link ClassInput#entry})对应, 在线程池中并行比较每一对类文件
+     * 同一边有多个相同路径的类文件时(例如 classpath 中的多个 jar 包), 和 classpath 一样使用第一个
+     */
+    ClassDiff.Result diff(List<String> oldPaths, List<String> newPaths) throws IOException {
+        List<ClassInput> oldInputs = new ArrayList<>();
+        List<ClassInput> newInputs = new ArrayList<>();
+        List<Closeable> opened = new ArrayList<>();
+        try {
+            for (String path : oldPaths) {
+                ClassInput.collect(path, oldInputs, opened);
+            }
+            for (String path : newPaths) {
+                ClassInput.collect(path, newInputs, opened);
+            }
+            Map<String, ClassInput> oldEntries = byEntry(oldInputs);
+            Map<String, ClassInput> newEntries = byEntry(newInputs);
+            TreeSet<String> entries = new TreeSet<>(oldEntries.keySet());
+            entries.addAll(newEntries.keySet());
+            List<String> names = new ArrayList<>(entries);
+            ClassDiff[] diffs = new ClassDiff[names.size()];
+            ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+            long begin = System.nanoTime();
+            pool.invoke(new EachTask(0, names.size(), i -> {
+                String entry = names.get(i);
+                ClassInput oldInput = oldEntries.get(entry);
+                ClassInput newInput = newEntries.get(entry);
+                if (oldInput == null) {
+                    diffs[i] = ClassDiff.added(entry);
+                } else if (newInput == null) {
+                    diffs[i] = ClassDiff.removed(entry);
+                } else {
+                    try {
+                        diffs[i] = ClassDiff.compare(entry, oldInput.read(), newInput.read());
+                    } catch (Exception | StackOverflowError e) {
+                        failures.add(new Failure(newInput.name, e));
+                    }
+                }
+            }));
+            long elapsed = System.nanoTime() - begin;
+            List<ClassDiff> changed = new ArrayList<>();
+            for (ClassDiff diff : diffs) {
+                if (diff != null && !diff.identical()) {
+                    changed.add(diff);
+                }
+            }
+            return new ClassDiff.Result(changed, names.size(), new ArrayList<>(failures), elapsed);
+        } finally {
+            close(opened);
+        }
+    }
+
+    private static Map<String, ClassInput> byEntry(List<ClassInput> inputs) {
+        Map<String, ClassInput> entries = new HashMap<>();
+        for (ClassInput input : inputs) {
+            entries.putIfAbsent(input.entry, input);
+        }
+        return entries;
+    }
+
+    /**
+     * 解析结果的完整描述, 解析失败时以异常类型作为结果
+     * (JIT 对频繁抛出的隐式异常会省略 message, 所以不比较 message)
+     */
+    private static String describe(ByteBuffer bytes, SymbolTable symbols) {
+        try {
+            return new BytecodeParser(ParseOptions.ALL, null, symbols).read(bytes).toString();
+        } catch (Exception | StackOverflowError e) {
+            return "error: " + e.getClass().getName();
+        }
+    }
+
+    private static void close(List<Closeable> opened) throws IOException {
+        for (Closeable closeable : opened) {
+            closeable.close();
+        }
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * 对 [from, to) 中的每个下标执行 action, 区间过大时对半拆分
+     */
+    static class EachTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final IntConsumer action;
+
+        EachTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EachTask(from, middle, action), new EachTask(middle, to, action));
+        }
+    }
+}
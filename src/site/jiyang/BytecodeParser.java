@@ -1,8 +1,14 @@
 package site.jiyang;
 
 
-import java.util.Arrays;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * <pre>
@@ -27,83 +33,229 @@ import java.util.HashMap;
  * </pre>
  */
 public final class BytecodeParser {
-    public static HashMap<Integer, ConstantItem> constantItemHashMap;
+    private final int options;
+    private final ClassCache cache;
+    private final SymbolTable symbols;
+
+    public BytecodeParser() {
+        this(ParseOptions.ALL);
+    }
+
+    /**
+     * @param options {@link ParseOptions} 的组合, 只解析需要的部分.
+     *                例如只需要继承关系时使用 {@link ParseOptions#HIERARCHY}, 读完接口表就结束
+     */
+    public BytecodeParser(int options) {
+        this(options, null);
+    }
+
+    /**
+     * @param cache {@link #read} 先在 cache 中查找, 为 null 时不缓存
+     */
+    BytecodeParser(int options, ClassCache cache) {
+        this(options, cache, null);
+    }
+
+    /**
+     * @param symbols 批量解析时多个类共享的符号表, 见 {@link SymbolTable}
+     */
+    BytecodeParser(int options, ClassCache cache, SymbolTable symbols) {
+        this.options = options;
+        this.cache = cache;
+        this.symbols = symbols;
+    }
 
     public void parse(final byte[] bytes) {
-        printSectionDivider("Magic Number");
-        Section magicNumber = new MagicNumber(0, bytes);
-        magicNumber.parse();
-        System.out.println(magicNumber);
-
-        printSectionDivider("Version");
-        Section version = new Version(magicNumber.end(), bytes);
-        version.parse();
-        System.out.println(version);
-
-        printSectionDivider("Constant Pool");
-        ConstantPool constantPool = new ConstantPool(version.end(), bytes);
-        constantPool.parse();
-        System.out.println(constantPool);
-        constantItemHashMap = constantPool.getConstantItems();
-
-        printSectionDivider("Access Flags");
-        Section accessFlags = new AccessFlags(constantPool.end(), bytes);
-        accessFlags.parse();
-        System.out.println(accessFlags);
-
-        printSectionDivider("This class");
-        Section thisClass = new ClassIndex(accessFlags.end(), bytes);
-        thisClass.parse();
-        System.out.println(thisClass);
-
-        printSectionDivider("Super class");
-        Section superClass = new ClassIndex(thisClass.end(), bytes);
-        superClass.parse();
-        System.out.println(superClass);
-
-        printSectionDivider("Interfaces");
-        Interfaces interfaces = new Interfaces(superClass.end(), bytes);
-        interfaces.parse();
-        System.out.println(interfaces);
-
-        printSectionDivider("Fields");
-        FieldOrMethod fields = new FieldOrMethod("Fields", interfaces.end(), bytes);
-        fields.parse();
-        System.out.println(fields);
-
-        printSectionDivider("Methods");
-        FieldOrMethod methods = new FieldOrMethod("Methods", fields.end(), bytes);
-        methods.parse();
-        System.out.println(methods);
-
-        printSectionDivider("This class attribute_info");
-        int offset = methods.end();
+        parse(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 输出类文件的所有内容
+     */
+    public void parse(final ByteBuffer bytes) {
+        new ClassReader(bytes).accept(new PrintingVisitor(System.out));
+    }
+
+    /**
+     * 流式读取类文件, 只有 visitor 处理的部分才会被解码
+     */
+    void accept(final ByteBuffer bytes, ClassVisitor visitor) {
+        new ClassReader(bytes, symbols).accept(visitor, options);
+    }
+
+    /**
+     * 只解析不输出, 批量模式下使用. 没有选择的部分在返回的 ClassFile 中为 null
+     * 每次解析都使用独立的 {@link ParseContext}, 所以可以在多个线程中同时解析不同的类
+     */
+    ClassFile read(final byte[] bytes) {
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * bytes 的第 0 个字节是类文件的开始, 可以是堆内的 buffer, 也可以是通过 {@link Utils#map(File)} 映射的文件
+     */
+    ClassFile read(final ByteBuffer bytes) {
+        if (cache == null) {
+            return readClass(bytes);
+        }
+        return cache.get(ClassCache.Key.of(bytes, options), () -> readShared(bytes));
+    }
+
+    /**
+     * 批量模式下使用: 先按类文件的位置和版本({@link ClassInput#stamp()})在缓存中查找, 命中时不读取也不 hash 类文件;
+     * 取不到版本时才按内容的 SHA-256 查找
+     */
+    ClassFile read(final ClassInput input) throws IOException {
+        if (cache == null) {
+            return readClass(input.read());
+        }
+        ClassCache.Key key = ClassCache.Key.of(input, options);
+        if (key == null) {
+            return read(input.read());
+        }
+        try {
+            return cache.get(key, () -> {
+                try {
+                    return readShared(input.read());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 解析放入缓存的 ClassFile
+     */
+    private ClassFile readShared(final ByteBuffer bytes) {
+        // 缓存的结果会保留 buffer, 映射的文件可能被覆盖或者删除, 所以复制到堆中
+        ByteBuffer heap = bytes;
+        if (bytes.isDirect()) {
+            ByteBuffer source = bytes.duplicate();
+            source.position(0);
+            heap = ByteBuffer.allocate(source.remaining());
+            heap.put(source);
+            heap.flip();
+        }
+        ClassFile classFile = readClass(heap);
+        // 缓存的 ClassFile 会被多个线程读取, 放入缓存之前完成所有延迟的解码
+        classFile.resolveAll();
+        return classFile;
+    }
+
+    private ClassFile readClass(final ByteBuffer bytes) {
+        ClassFile classFile = new ClassFile();
+        ParseContext context = new ParseContext(bytes, options, symbols);
+        // 打开统计时记录每个阶段, 见 ParseMetrics
+        ParseMetrics.Recorder metrics = ParseMetrics.recorder();
+
+        classFile.magicNumber = new MagicNumber(context, 0, bytes);
+        classFile.magicNumber.parse();
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.MAGIC_NUMBER, classFile.magicNumber.size());
+        }
+
+        classFile.version = new Version(context, classFile.magicNumber.end(), bytes);
+        classFile.version.parse();
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.VERSION, classFile.version.size());
+        }
+
+        classFile.constantPool = new ConstantPool(context, classFile.version.end(), bytes);
+        classFile.constantPool.parse();
+        context.constantPool = classFile.constantPool;
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.CONSTANT_POOL, classFile.constantPool.size());
+        }
+
+        classFile.accessFlags = new AccessFlags(context, classFile.constantPool.end(), bytes);
+        classFile.accessFlags.parse();
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.ACCESS_FLAGS, classFile.accessFlags.size());
+        }
+
+        classFile.thisClass = new ClassIndex(context, classFile.accessFlags.end(), bytes);
+        classFile.thisClass.parse();
+
+        classFile.superClass = new ClassIndex(context, classFile.thisClass.end(), bytes);
+        classFile.superClass.parse();
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.CLASS_INDEX, classFile.superClass.end() - classFile.thisClass.start());
+        }
+
+        if (!context.has(ParseOptions.INTERFACES | ParseOptions.FIELDS
+                | ParseOptions.METHODS | ParseOptions.CLASS_ATTRIBUTES)) {
+            return classFile;
+        }
+        classFile.interfaces = new Interfaces(context, classFile.superClass.end(), bytes);
+        classFile.interfaces.parse();
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.INTERFACES, classFile.interfaces.size());
+        }
+
+        if (!context.has(ParseOptions.FIELDS | ParseOptions.METHODS | ParseOptions.CLASS_ATTRIBUTES)) {
+            return classFile;
+        }
+        int offset = classFile.interfaces.end();
+        if (context.has(ParseOptions.FIELDS)) {
+            classFile.fields = new FieldOrMethod("Fields", context, offset, bytes);
+            classFile.fields.parse();
+            offset = classFile.fields.end();
+        } else {
+            offset = FieldOrMethod.skip(bytes, offset);
+        }
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.FIELDS, offset - classFile.interfaces.end());
+        }
+
+        if (!context.has(ParseOptions.METHODS | ParseOptions.CLASS_ATTRIBUTES)) {
+            return classFile;
+        }
+        int methodsStart = offset;
+        if (context.has(ParseOptions.METHODS)) {
+            classFile.methods = new FieldOrMethod("Methods", context, offset, bytes);
+            classFile.methods.parse();
+            offset = classFile.methods.end();
+        } else {
+            offset = FieldOrMethod.skip(bytes, offset);
+        }
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.METHODS, offset - methodsStart);
+        }
+
+        if (!context.has(ParseOptions.CLASS_ATTRIBUTES)) {
+            return classFile;
+        }
+        int attributesStart = offset;
         int attributeCount = Utils.read2Number(bytes, offset);
         offset += 2;
-        AttributeInfo[] attributeInfos = new AttributeInfo[attributeCount];
+        classFile.attributes = new AttributeInfo[attributeCount];
         for (int i = 0; i < attributeCount; i++) {
-            attributeInfos[i] = new AttributeInfo();
-            attributeInfos[i].parse(bytes, offset);
-            offset += attributeInfos[i].size();
+            classFile.attributes[i] = new AttributeInfo();
+            classFile.attributes[i].parse(context, bytes, offset);
+            offset += classFile.attributes[i].size();
         }
-        System.out.println(Arrays.toString(attributeInfos));
-    }
-
-    private static void printSectionDivider(String name) {
-        System.out.println("== " + name + " ======================================");
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.ATTRIBUTES, offset - attributesStart);
+        }
+        return classFile;
     }
 
 }
 
 interface Parsable {
-    public void parse(byte[] bytes, int offset);
+    public void parse(ParseContext context, ByteBuffer bytes, int offset);
 }
 
 abstract class Section {
+    final ParseContext context;
     final int start;
-    final byte[] bytes;
+    final ByteBuffer bytes;
 
-    public Section(int start, byte[] bytes) {
+    public Section(ParseContext context, int start, ByteBuffer bytes) {
+        this.context = context;
         this.start = start;
         this.bytes = bytes;
     }
@@ -121,37 +273,72 @@ abstract class Section {
     abstract public void parse();
 }
 
+/**
+ * 类文件中的数都是大端序, 使用绝对位置读取, 不会改变 ByteBuffer 的 position, 多个线程可以同时读同一个 buffer
+ */
 class Utils {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
     /**
      * 获取占4字节的数
      */
-    static int read4Number(byte[] bytes, int offset) {
-        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | ((bytes[offset + 3] & 0xFF));
+    static int read4Number(ByteBuffer bytes, int offset) {
+        return bytes.getInt(offset);
     }
 
     /**
      * 获取占2字节的数, 为了避免 java 中只有 signed short 越界出现显示了负数, 所以返回 int
      */
-    static int read2Number(byte[] bytes, int offset) {
-        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    static int read2Number(ByteBuffer bytes, int offset) {
+        return bytes.getShort(offset) & 0xFFFF;
     }
 
-    static int readUnsignedByte(byte[] bytes, int offset) {
-        return (bytes[offset] & 0xFF);
+    static int readUnsignedByte(ByteBuffer bytes, int offset) {
+        return (bytes.get(offset) & 0xFF);
     }
 
     /**
      * 获得占8字节的数
      */
-    static long read8Number(byte[] bytes, int offset) {
-        return (
-                ((long) bytes[offset] & 0xFF) << 56) |
-                (((long) bytes[offset + 1] & 0xFF) << 48) |
-                (((long) bytes[offset + 2] & 0xFF) << 40) |
-                (((long) bytes[offset + 3] & 0xFF) << 32) |
-                (((long) bytes[offset + 3] & 0xFF) << 24) |
-                (((long) bytes[offset + 3] & 0xFF) << 16) |
-                (((long) bytes[offset + 3] & 0xFF) << 8) |
-                (((long) bytes[offset + 3] & 0xFF));
+    static long read8Number(ByteBuffer bytes, int offset) {
+        return bytes.getLong(offset);
+    }
+
+    /**
+     * 按 Modified UTF-8 解码 length 个字节, 见 {@link ModifiedUtf8}
+     */
+    static String readString(ByteBuffer bytes, int offset, int length) {
+        return ModifiedUtf8.decode(bytes, offset, length);
+    }
+
+    /**
+     * bytes 中 position 到 limit 之间内容的 SHA-256, 以十六进制表示
+     */
+    static String sha256Hex(ByteBuffer bytes) {
+        MessageDigest digest = SHA256.get();
+        digest.update(bytes.duplicate());
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 把文件映射到内存, 解析时直接读取映射的内存, 不复制到堆中
+     */
+    static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
     }
 }
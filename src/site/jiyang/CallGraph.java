@@ -0,0 +1,508 @@
+package site.jiyang;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 由 invoke 指令得到的静态调用图
+ * 方法以 "类名.方法名描述符" 表示, 例如 java/lang/Object.toString()Ljava/lang/String;, 每个方法对应一个 int id.
+ * 边以 CSR 形式存放:
+ * <pre>
+ * callees[calleeStart[id] .. calleeStart[id + 1])  id 调用的方法, calleeKinds 中对应的位置表示是否是虚调用
+ * callers[callerStart[id] .. callerStart[id + 1])  调用 id 的方法
+ * </pre>
+ * invokedynamic 的目标只有在运行时才确定, 这里把类中所有指向方法的 MethodHandle 常量
+ * 都当作这个类中执行了 invokedynamic 的方法的调用目标(例如 lambda 的方法体)
+ */
+final class CallGraph {
+    static final int INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184,
+            INVOKEINTERFACE = 185, INVOKEDYNAMIC = 186;
+    static final byte VIRTUAL = 1;
+    private static final String MAIN = ".main([Ljava/lang/String;)V";
+    private static final String CLINIT = ".<clinit>()V";
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final BitSet defined;
+    private final int[] calleeStart, callees;
+    private final byte[] calleeKinds;
+    private final int[] callerStart, callers;
+
+    /**
+     * 一个类中声明的方法和调用边, 每个线程解析完一个类后放入队列, 最后统一合并
+     * 方法名先在类内编号, 合并时每个名字只查一次全局的 id:
+     * <pre>
+     * methods[0 .. methodCount)   声明的方法
+     * edges[0 .. edgeCount * 2)   caller, callee << 1 | 是否是虚调用 交替
+     * </pre>
+     */
+    private static final class ClassCalls {
+        final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        int[] methods = new int[8];
+        int methodCount;
+        int[] edges = new int[16];
+        int edgeCount;
+
+        int intern(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            return id;
+        }
+
+        void addMethod(int id) {
+            if (methodCount == methods.length) {
+                methods = Arrays.copyOf(methods, methodCount * 2);
+            }
+            methods[methodCount++] = id;
+        }
+
+        void addEdge(int caller, int callee, boolean virtual) {
+            if (edgeCount * 2 == edges.length) {
+                edges = Arrays.copyOf(edges, edges.length * 2);
+            }
+            edges[edgeCount * 2] = caller;
+            edges[edgeCount * 2 + 1] = callee << 1 | (virtual ? 1 : 0);
+            edgeCount++;
+        }
+    }
+
+    /**
+     * 按方法逐个读取 Code 属性, 用 {@link InstructionCursor} 遍历指令, 不构建完整的 ClassFile
+     */
+    private static final class CallVisitor extends ClassVisitor {
+        private final ConcurrentLinkedQueue<ClassCalls> results;
+        private final InstructionCursor cursor = new InstructionCursor();
+        private ParseContext context;
+        private String className;
+        private int method;
+        private ClassCalls calls;
+        private int[] dynamicCallers = new int[8];
+        private int dynamicCount;
+        /**
+         * 常量池下标对应的方法在 calls 中的编号加 1, 0 表示还没有解析过, -1 表示不是方法引用
+         */
+        private int[] refs;
+
+        CallVisitor(ConcurrentLinkedQueue<ClassCalls> results) {
+            this.results = results;
+        }
+
+        @Override
+        void visitHeader(ParseContext context, int magic, int minorVersion, int majorVersion) {
+            this.context = context;
+            this.calls = new ClassCalls();
+            this.dynamicCount = 0;
+            this.refs = null;
+        }
+
+        @Override
+        void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces) {
+            className = context.className(thisClass);
+        }
+
+        @Override
+        boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex) {
+            method = calls.intern(className + "." + context.utf8(nameIndex) + context.utf8(descriptorIndex));
+            calls.addMethod(method);
+            return true;
+        }
+
+        @Override
+        void visitCode(CodeInfo code) {
+            InstructionCursor cursor = code.cursor(this.cursor);
+            boolean dynamic = false;
+            while (cursor.next()) {
+                int opcode = cursor.opcode();
+                if (opcode >= INVOKEVIRTUAL && opcode <= INVOKEINTERFACE) {
+                    int callee = methodRef(cursor.operand(0));
+                    if (callee >= 0) {
+                        calls.addEdge(method, callee, opcode == INVOKEVIRTUAL || opcode == INVOKEINTERFACE);
+                    }
+                } else if (opcode == INVOKEDYNAMIC) {
+                    dynamic = true;
+                }
+            }
+            if (dynamic) {
+                if (dynamicCount == dynamicCallers.length) {
+                    dynamicCallers = Arrays.copyOf(dynamicCallers, dynamicCount * 2);
+                }
+                dynamicCallers[dynamicCount++] = method;
+            }
+        }
+
+        @Override
+        void visitEnd() {
+            if (calls == null || className == null) {
+                return;
+            }
+            if (dynamicCount > 0) {
+                ConstantPool constantPool = context.constantPool;
+                for (int i = 1; i < constantPool.poolCount; i++) {
+                    if (constantPool.tag(i) != 15) {
+                        continue;
+                    }
+                    Method_Handle handle = (Method_Handle) constantPool.get(i);
+                    // 5 ~ 9: invokevirtual, invokestatic, invokespecial, newinvokespecial, invokeinterface
+                    if (handle.referenceKind < 5) {
+                        continue;
+                    }
+                    int callee = methodRef(handle.referenceIndex);
+                    if (callee >= 0) {
+                        for (int j = 0; j < dynamicCount; j++) {
+                            calls.addEdge(dynamicCallers[j], callee,
+                                    handle.referenceKind == 5 || handle.referenceKind == 9);
+                        }
+                    }
+                }
+            }
+            results.add(calls);
+            calls = null;
+            className = null;
+        }
+
+        /**
+         * METHOD_REF 或 Interface_Method_Ref 表示的方法在 calls 中的编号, 其他常量返回 -1
+         * 同一个常量在一个类中通常被调用多次, 所以结果按常量池下标记录下来
+         */
+        private int methodRef(int index) {
+            if (index <= 0 || index >= context.constantPool.poolCount) {
+                return -1;
+            }
+            if (refs == null) {
+                refs = new int[context.constantPool.poolCount];
+            }
+            int ref = refs[index];
+            if (ref == 0) {
+                String name = methodName(index);
+                ref = name == null ? -1 : calls.intern(name) + 1;
+                refs[index] = ref;
+            }
+            return ref < 0 ? -1 : ref - 1;
+        }
+
+        /**
+         * 方法的 "类名.方法名描述符", 不是方法引用时返回 null
+         */
+        private String methodName(int index) {
+            ConstantItem item = context.constantItem(index);
+            int classIndex, nameAndTypeIndex;
+            if (item instanceof METHOD_REF) {
+                classIndex = ((METHOD_REF) item).classInfoIndex;
+                nameAndTypeIndex = ((METHOD_REF) item).nameAndTypeIndex;
+            } else if (item instanceof Interface_Method_Ref) {
+                classIndex = ((Interface_Method_Ref) item).classInfoIndex;
+                nameAndTypeIndex = ((Interface_Method_Ref) item).nameAndTypeIndex;
+            } else {
+                return null;
+            }
+            ConstantItem nameAndType = context.constantItem(nameAndTypeIndex);
+            if (!(nameAndType instanceof NAME_AND_TYPE)) {
+                return null;
+            }
+            return context.className(classIndex) + "." + context.utf8(((NAME_AND_TYPE) nameAndType).nameIndex)
+                    + context.utf8(((NAME_AND_TYPE) nameAndType).descriptorIndex);
+        }
+    }
+
+    /**
+     * 并行读取 paths 中所有类文件的方法和 Code 属性, 每个类得到的边最后合并成一张图
+     */
+    static CallGraph build(List<String> paths, List<BatchParser.Failure> failures) throws IOException {
+        ConcurrentLinkedQueue<ClassCalls> results = new ConcurrentLinkedQueue<>();
+        BatchParser batchParser = new BatchParser(ParseOptions.METHODS | ParseOptions.CODE).symbols(new SymbolTable());
+        try {
+            BatchParser.Result result = batchParser.accept(paths, () -> new CallVisitor(results));
+            failures.addAll(result.failures);
+        } finally {
+            batchParser.shutdown();
+        }
+        return new CallGraph(new ArrayList<>(results));
+    }
+
+    private CallGraph(List<ClassCalls> results) {
+        ids = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        defined = new BitSet();
+        // 类内编号到全局 id, 声明的方法先编号, 只被调用的方法排在后面
+        int[][] globals = new int[results.size()][];
+        int edgeCount = 0;
+        for (int c = 0; c < globals.length; c++) {
+            ClassCalls calls = results.get(c);
+            int[] global = globals[c] = new int[calls.names.size()];
+            Arrays.fill(global, -1);
+            for (int i = 0; i < calls.methodCount; i++) {
+                int method = calls.methods[i];
+                global[method] = intern(calls.names.get(method), names);
+                defined.set(global[method]);
+            }
+            edgeCount += calls.edgeCount;
+        }
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        boolean[] virtual = new boolean[edgeCount];
+        int e = 0;
+        for (int c = 0; c < globals.length; c++) {
+            ClassCalls calls = results.get(c);
+            int[] global = globals[c];
+            for (int i = 0; i < global.length; i++) {
+                if (global[i] < 0) {
+                    global[i] = intern(calls.names.get(i), names);
+                }
+            }
+            int[] edges = calls.edges;
+            for (int i = 0; i < calls.edgeCount; i++, e++) {
+                from[e] = global[edges[i * 2]];
+                to[e] = global[edges[i * 2 + 1] >>> 1];
+                virtual[e] = (edges[i * 2 + 1] & 1) != 0;
+            }
+        }
+        this.names = names.toArray(new String[0]);
+        int count = this.names.length;
+
+        // 先按调用者分组, 同一对 caller, callee 只保留一条边, 虚调用标记取或
+        int[] start = new int[count + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            start[from[i] + 1]++;
+        }
+        for (int i = 0; i < count; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] grouped = new int[edgeCount];
+        boolean[] groupedVirtual = new boolean[edgeCount];
+        int[] next = Arrays.copyOf(start, count);
+        for (int i = 0; i < edgeCount; i++) {
+            int slot = next[from[i]]++;
+            grouped[slot] = to[i];
+            groupedVirtual[slot] = virtual[i];
+        }
+        calleeStart = new int[count + 1];
+        int[] uniqueCallees = new int[edgeCount];
+        byte[] kinds = new byte[edgeCount];
+        int[] seen = new int[count];
+        Arrays.fill(seen, -1);
+        int unique = 0;
+        for (int caller = 0; caller < count; caller++) {
+            calleeStart[caller] = unique;
+            for (int i = start[caller]; i < start[caller + 1]; i++) {
+                int callee = grouped[i];
+                if (seen[callee] < calleeStart[caller]) {
+                    seen[callee] = unique;
+                    uniqueCallees[unique++] = callee;
+                }
+                if (groupedVirtual[i]) {
+                    kinds[seen[callee]] = VIRTUAL;
+                }
+            }
+        }
+        calleeStart[count] = unique;
+        callees = Arrays.copyOf(uniqueCallees, unique);
+        calleeKinds = Arrays.copyOf(kinds, unique);
+
+        callerStart = new int[count + 1];
+        for (int callee : callees) {
+            callerStart[callee + 1]++;
+        }
+        for (int i = 0; i < count; i++) {
+            callerStart[i + 1] += callerStart[i];
+        }
+        callers = new int[unique];
+        next = Arrays.copyOf(callerStart, count);
+        for (int caller = 0; caller < count; caller++) {
+            for (int i = calleeStart[caller]; i < calleeStart[caller + 1]; i++) {
+                callers[next[callees[i]]++] = caller;
+            }
+        }
+    }
+
+    private int intern(String name, List<String> names) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @return 不存在时返回 -1
+     */
+    int id(String method) {
+        Integer id = ids.get(method);
+        return id == null ? -1 : id;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * 方法是否在读取的类文件中声明, 只被调用的库方法为 false
+     */
+    boolean isDefined(int id) {
+        return defined.get(id);
+    }
+
+    int[] callees(int id) {
+        return Arrays.copyOfRange(callees, calleeStart[id], calleeStart[id + 1]);
+    }
+
+    int[] callers(int id) {
+        return Arrays.copyOfRange(callers, callerStart[id], callerStart[id + 1]);
+    }
+
+    int fanOut(int id) {
+        return calleeStart[id + 1] - calleeStart[id];
+    }
+
+    int fanIn(int id) {
+        return callerStart[id + 1] - callerStart[id];
+    }
+
+    /**
+     * 所有声明的 main 方法和静态初始化方法
+     */
+    int[] entryPoints() {
+        int[] result = new int[16];
+        int count = 0;
+        for (int id = defined.nextSetBit(0); id >= 0; id = defined.nextSetBit(id + 1)) {
+            if (names[id].endsWith(MAIN) || names[id].endsWith(CLINIT)) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = id;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 从 roots 出发能到达的方法
+     *
+     * @param hierarchy 不为 null 时按类层次分析(CHA)处理虚调用: 调用 X.m 时, X 的所有子类型中声明的 m 都可能被调用;
+     *                  X 没有声明 m 时沿父类链找到声明 m 的类
+     */
+    BitSet reachable(int[] roots, ClassHierarchy hierarchy) {
+        BitSet reached = new BitSet(names.length);
+        BitSet dispatched = new BitSet(names.length);
+        int[] queue = new int[Math.max(16, roots.length)];
+        int tail = 0;
+        for (int root : roots) {
+            if (!reached.get(root)) {
+                reached.set(root);
+                queue[tail++] = root;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int current = queue[head];
+            for (int i = calleeStart[current]; i < calleeStart[current + 1]; i++) {
+                int callee = callees[i];
+                int[] targets = hierarchy == null ? new int[]{callee}
+                        : resolve(callee, hierarchy, calleeKinds[i] == VIRTUAL && !dispatched.get(callee));
+                if (calleeKinds[i] == VIRTUAL) {
+                    dispatched.set(callee);
+                }
+                for (int target : targets) {
+                    if (!reached.get(target)) {
+                        reached.set(target);
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, tail * 2);
+                        }
+                        queue[tail++] = target;
+                    }
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * 调用 callee 时实际可能执行的方法
+     */
+    private int[] resolve(int callee, ClassHierarchy hierarchy, boolean virtual) {
+        String name = names[callee];
+        int split = name.indexOf('.');
+        String owner = name.substring(0, split);
+        String signature = name.substring(split);
+        int ownerId = hierarchy.id(owner);
+        int[] result = new int[4];
+        int count = 0;
+        result[count++] = callee;
+        if (ownerId < 0) {
+            return Arrays.copyOf(result, count);
+        }
+        if (!defined.get(callee)) {
+            for (int superclass : hierarchy.superclassChain(ownerId)) {
+                int inherited = id(hierarchy.name(superclass) + signature);
+                if (inherited >= 0 && defined.get(inherited)) {
+                    result[count++] = inherited;
+                    break;
+                }
+            }
+        }
+        if (virtual) {
+            for (int subtype : hierarchy.subtypes(ownerId)) {
+                int override = id(hierarchy.name(subtype) + signature);
+                if (override >= 0 && defined.get(override)) {
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = override;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * 声明了但从 roots 出发无法到达的方法
+     */
+    int[] unreachable(int[] roots, ClassHierarchy hierarchy) {
+        BitSet reached = reachable(roots, hierarchy);
+        BitSet dead = (BitSet) defined.clone();
+        dead.andNot(reached);
+        return dead.stream().toArray();
+    }
+
+    /**
+     * 调用的不同方法最多的 n 个方法, 从多到少
+     */
+    int[] topFanOut(int n) {
+        // 高 32 位是 fanOut 取反后的值, 低 32 位是 id, 升序排序后 fanOut 相同的方法按 id 排列
+        long[] order = new long[names.length];
+        for (int id = 0; id < order.length; id++) {
+            order[id] = (long) (Integer.MAX_VALUE - fanOut(id)) << 32 | id;
+        }
+        Arrays.sort(order);
+        int[] result = new int[Math.min(n, order.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (int) order[i];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CallGraph{" +
+                "methods=" + names.length +
+                ", defined=" + defined.cardinality() +
+                ", edges=" + callees.length +
+                '}';
+    }
+}
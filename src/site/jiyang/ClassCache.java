@@ -0,0 +1,231 @@
+package site.jiyang;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的解析结果缓存, {@link BytecodeParser} 解析前先查找这里
+ * 按 key 的 hash 分成多个分段, 每个分段是一个按访问顺序排列的 LinkedHashMap, 有自己的锁和权重上限,
+ * 超过上限时淘汰分段中最久没有访问的条目. 不同分段之间互不阻塞
+ * <p>
+ * 条目的权重是 {@link #weigh(ClassFile)} 估算的保留内存大小.
+ * 缓存的 ClassFile 会被多个线程共享: 放入缓存之前已经调用 {@link ClassFile#resolveAll()} 完成所有延迟的解码,
+ * 之后只有读取, 而放入和取出都在分段的锁中进行, 所以其他线程能看到完整的结果. 映射的文件先复制到堆中再解析
+ */
+final class ClassCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight 所有条目的权重之和的上限, 平均分给每个分段
+     */
+    ClassCache(long maxWeight) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxWeight / STRIPES);
+        }
+    }
+
+    /**
+     * 缓存的 key, 包括类文件的来源和解析选项, 同一个类文件用不同的选项解析的结果不同
+     */
+    static final class Key {
+        private final String id;
+        private final int options;
+
+        private Key(String id, int options) {
+            this.id = id;
+            this.options = options;
+        }
+
+        /**
+         * 以类文件的位置和版本作为 key, 不需要读取内容; 同一个位置上的类文件变化后版本不同, 旧的条目之后被淘汰
+         *
+         * @return 取不到版本时返回 null, 这时使用 {@link #of(ByteBuffer, int)}
+         */
+        static Key of(ClassInput input, int options) {
+            String stamp;
+            try {
+                stamp = input.stamp();
+            } catch (IOException e) {
+                return null;
+            }
+            return new Key("file:" + input.location() + "@" + stamp, options);
+        }
+
+        /**
+         * 以内容的 SHA-256 作为 key, 需要读取并 hash 整个类文件
+         */
+        static Key of(ByteBuffer bytes, int options) {
+            return new Key("sha256:" + Utils.sha256Hex(bytes), options);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return options == key.options && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode() * 31 + options;
+        }
+
+        @Override
+        public String toString() {
+            return id + "#" + options;
+        }
+    }
+
+    private static final class Entry {
+        final ClassFile classFile;
+        final long weight;
+
+        Entry(ClassFile classFile, long weight) {
+            this.classFile = classFile;
+            this.weight = weight;
+        }
+    }
+
+    private final class Stripe {
+        private final long maxWeight;
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight;
+
+        Stripe(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+
+        synchronized ClassFile get(Key key) {
+            Entry entry = entries.get(key);
+            return entry == null ? null : entry.classFile;
+        }
+
+        synchronized void put(Key key, Entry entry) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += entry.weight;
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            // 至少保留刚放入的条目, 即使它自己就超过了上限
+            while (weight > maxWeight && entries.size() > 1) {
+                Entry eldest = iterator.next().getValue();
+                iterator.remove();
+                weight -= eldest.weight;
+                evictions.increment();
+            }
+        }
+
+        synchronized void remove(Key key) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                weight -= entry.weight;
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            weight = 0;
+        }
+
+        synchronized long weight() {
+            return weight;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private Stripe stripe(Key key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * 返回缓存的结果, 没有时调用 loader 解析并放入缓存
+     * loader 在锁外执行, 同一个 key 同时未命中时可能解析多次, 最后放入的结果生效
+     */
+    ClassFile get(Key key, Supplier<ClassFile> loader) {
+        Stripe stripe = stripe(key);
+        ClassFile classFile = stripe.get(key);
+        if (classFile != null) {
+            hits.increment();
+            return classFile;
+        }
+        misses.increment();
+        classFile = loader.get();
+        stripe.put(key, new Entry(classFile, weigh(classFile)));
+        return classFile;
+    }
+
+    void invalidate(Key key) {
+        stripe(key).remove(key);
+    }
+
+    void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    long weight() {
+        long weight = 0;
+        for (Stripe stripe : stripes) {
+            weight += stripe.weight();
+        }
+        return weight;
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * 估算 ClassFile 保留的内存: 常量和名称延迟解码, 所以整个类文件的 buffer 都被保留;
+     * 另外每个常量有 tag, offset 和缓存的常量对象, 每个字段, 方法和属性各有一个对象
+     */
+    static long weigh(ClassFile classFile) {
+        long weight = 128 + classFile.magicNumber.bytes.capacity();
+        weight += classFile.constantPool.poolCount * 48L;
+        weight += members(classFile.fields) + members(classFile.methods);
+        if (classFile.attributes != null) {
+            weight += classFile.attributes.length * 64L;
+        }
+        return weight;
+    }
+
+    private static long members(FieldOrMethod members) {
+        if (members == null) {
+            return 0;
+        }
+        long weight = 0;
+        for (FieldOrMethod.Entity entity : members.entities()) {
+            weight += 96 + entity.attributesCount * 64L;
+        }
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ClassCache: %d entries, %.2f MB, %d hits, %d misses, %d evictions",
+                size(), weight() / (1024.0 * 1024.0), hits.sum(), misses.sum(), evictions.sum());
+    }
+}
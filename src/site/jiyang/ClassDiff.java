@@ -0,0 +1,547 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 两个版本的类文件之间的结构差异, 按 Version, ConstantPool, AccessFlags, Class(this/super), Interfaces,
+ * Fields, Methods, Attributes 逐部分比较
+ * 每个部分先直接比较原始字节范围, 相同就跳过, 不解码; 只有不同的部分才展开到字段, 方法和属性.
+ * 常量池不同时常量池索引不能直接比较, 这时按索引指向的常量内容比较(见 {@link #sameConstant(int, int)}),
+ * 字节码中的常量池操作数, 异常表, 局部变量表和 StackMapTable 中的类名都这样比较, 所以只是常量池重新编号的部分不算改变.
+ * 不认识的属性只能比较原始字节
+ */
+final class ClassDiff {
+    static final String ADDED = "added";
+    static final String REMOVED = "removed";
+
+    /**
+     * jar 包或目录中的相对路径
+     */
+    final String entry;
+    /**
+     * 每一项是一处差异, 例如 "Version: 52.0 -> 55.0", "Methods: ~ run()V [Code]"; 为空表示结构相同
+     */
+    final List<String> changes;
+
+    private ClassDiff(String entry, List<String> changes) {
+        this.entry = entry;
+        this.changes = changes;
+    }
+
+    static ClassDiff added(String entry) {
+        return new ClassDiff(entry, Collections.singletonList(ADDED));
+    }
+
+    static ClassDiff removed(String entry) {
+        return new ClassDiff(entry, Collections.singletonList(REMOVED));
+    }
+
+    boolean identical() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * 比较同一个类文件的旧版本 a 和新版本 b
+     */
+    static ClassDiff compare(String entry, ByteBuffer a, ByteBuffer b) {
+        if (a.duplicate().equals(b.duplicate())) {
+            return new ClassDiff(entry, Collections.emptyList());
+        }
+        return new ClassDiff(entry, new Comparison(new Layout(a), new Layout(b)).run());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(entry);
+        for (String change : changes) {
+            sb.append("\n    ").append(change);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 批量比较的结果, 只包括有差异的类文件
+     */
+    static final class Result {
+        final List<ClassDiff> changed;
+        final int compared;
+        final List<BatchParser.Failure> failures;
+        final long elapsedNanos;
+
+        Result(List<ClassDiff> changed, int compared, List<BatchParser.Failure> failures, long elapsedNanos) {
+            this.changed = changed;
+            this.compared = compared;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Compared %d classes in %.1f ms, %d changed, %d failures",
+                    compared, elapsedNanos / 1e6, changed.size(), failures.size());
+        }
+    }
+
+    /**
+     * 一个类文件中各部分的位置, 只扫描常量池的 tag 和偏移以及各个表的长度
+     */
+    private static final class Layout {
+        final ByteBuffer bytes;
+        final ParseContext context;
+        /**
+         * access_flags 的位置
+         */
+        final int classStart;
+        final int fieldsStart;
+        /**
+         * 第 i 个字段从 fields[i] 开始, 最后一项是字段表的结束位置, 也就是方法表的位置
+         */
+        final int[] fields;
+        final int[] methods;
+        final int attributesStart;
+
+        Layout(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.context = new ParseContext(bytes, ParseOptions.ALL);
+            ConstantPool constantPool = new ConstantPool(context, 8, bytes);
+            constantPool.parse();
+            context.constantPool = constantPool;
+            classStart = constantPool.end();
+            fieldsStart = classStart + 8 + 2 * Utils.read2Number(bytes, classStart + 6);
+            fields = members(fieldsStart);
+            methods = members(fields[fields.length - 1]);
+            attributesStart = methods[methods.length - 1];
+        }
+
+        private int[] members(int offset) {
+            int count = Utils.read2Number(bytes, offset);
+            int[] starts = new int[count + 1];
+            offset += 2;
+            for (int i = 0; i < count; i++) {
+                starts[i] = offset;
+                offset = attributesEnd(offset + 6);
+            }
+            starts[count] = offset;
+            return starts;
+        }
+
+        /**
+         * @param offset attributes_count 的位置
+         * @return 属性表之后的位置
+         */
+        int attributesEnd(int offset) {
+            int count = Utils.read2Number(bytes, offset);
+            offset += 2;
+            for (int i = 0; i < count; i++) {
+                offset += 6 + Utils.read4Number(bytes, offset + 2);
+            }
+            return offset;
+        }
+
+        int u2(int offset) {
+            return Utils.read2Number(bytes, offset);
+        }
+
+        String memberKey(int start) {
+            return context.utf8(u2(start + 2)) + context.utf8(u2(start + 4));
+        }
+
+        String className(int index) {
+            return index == 0 ? "-" : context.className(index);
+        }
+    }
+
+    private static final class Comparison {
+        private final Layout a;
+        private final Layout b;
+        private final boolean samePool;
+        private final List<String> changes = new ArrayList<>();
+        private final InstructionCursor cursor = new InstructionCursor();
+
+        Comparison(Layout a, Layout b) {
+            this.a = a;
+            this.b = b;
+            this.samePool = sameBytes(8, a.classStart, 8, b.classStart);
+        }
+
+        List<String> run() {
+            if (!sameBytes(4, 8, 4, 8)) {
+                changes.add(String.format("Version: %d.%d -> %d.%d",
+                        a.u2(6), a.u2(4), b.u2(6), b.u2(4)));
+            }
+            if (!samePool) {
+                changes.add(String.format("ConstantPool: %d -> %d entries",
+                        a.context.constantPool.poolCount - 1, b.context.constantPool.poolCount - 1));
+            }
+            if (a.u2(a.classStart) != b.u2(b.classStart)) {
+                changes.add(String.format("AccessFlags: 0x%04x -> 0x%04x", a.u2(a.classStart), b.u2(b.classStart)));
+            }
+            for (int i = 2; i <= 4; i += 2) {
+                if (!sameConstant(a.u2(a.classStart + i), b.u2(b.classStart + i))) {
+                    changes.add(String.format("Class: %s -> %s",
+                            a.className(a.u2(a.classStart + i)), b.className(b.u2(b.classStart + i))));
+                }
+            }
+            if (!sameList(a.classStart + 6, b.classStart + 6)) {
+                changes.add(String.format("Interfaces: %s -> %s",
+                        interfaces(a), interfaces(b)));
+            }
+            compareMembers("Fields", a.fields, b.fields);
+            compareMembers("Methods", a.methods, b.methods);
+            List<String> attributes = new ArrayList<>();
+            compareAttributes(a.attributesStart, b.attributesStart, attributes);
+            for (String name : attributes) {
+                changes.add("Attributes: " + (name.startsWith("+") || name.startsWith("-")
+                        ? name.charAt(0) + " " + name.substring(1) : "~ " + name));
+            }
+            return changes;
+        }
+
+        private static List<String> interfaces(Layout layout) {
+            int count = layout.u2(layout.classStart + 6);
+            List<String> names = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                names.add(layout.className(layout.u2(layout.classStart + 8 + 2 * i)));
+            }
+            return names;
+        }
+
+        private boolean sameBytes(int fromA, int toA, int fromB, int toB) {
+            if (toA - fromA != toB - fromB) {
+                return false;
+            }
+            ByteBuffer viewA = a.bytes.duplicate();
+            viewA.limit(toA).position(fromA);
+            ByteBuffer viewB = b.bytes.duplicate();
+            viewB.limit(toB).position(fromB);
+            return viewA.equals(viewB);
+        }
+
+        /**
+         * 两边的常量池中 i 和 j 指向的常量内容是否相同, 引用其他常量的常量递归比较, 不解码字符串
+         * 常量池相同时直接比较索引. 0 表示没有引用, 只和 0 相同
+         */
+        private boolean sameConstant(int i, int j) {
+            if (samePool || i == 0 || j == 0) {
+                return i == j;
+            }
+            ConstantPool poolA = a.context.constantPool;
+            ConstantPool poolB = b.context.constantPool;
+            int tag = poolA.tag(i);
+            if (tag != poolB.tag(j)) {
+                return false;
+            }
+            int offsetA = poolA.offset(i);
+            int offsetB = poolB.offset(j);
+            switch (tag) {
+                case 1: // Utf8
+                    return sameBytes(offsetA + 1, offsetA + 3 + a.u2(offsetA + 1),
+                            offsetB + 1, offsetB + 3 + b.u2(offsetB + 1));
+                case 3: // Integer
+                case 4: // Float
+                    return sameBytes(offsetA + 1, offsetA + 5, offsetB + 1, offsetB + 5);
+                case 5: // Long
+                case 6: // Double
+                    return sameBytes(offsetA + 1, offsetA + 9, offsetB + 1, offsetB + 9);
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    return sameConstant(a.u2(offsetA + 1), b.u2(offsetB + 1));
+                case 15: // MethodHandle
+                    return a.bytes.get(offsetA + 1) == b.bytes.get(offsetB + 1)
+                            && sameConstant(a.u2(offsetA + 2), b.u2(offsetB + 2));
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    // 第一个 u2 是 BootstrapMethods 属性中的下标, 不是常量池索引
+                    return a.u2(offsetA + 1) == b.u2(offsetB + 1)
+                            && sameConstant(a.u2(offsetA + 3), b.u2(offsetB + 3));
+                default: // Fieldref, Methodref, InterfaceMethodref, NameAndType
+                    return sameConstant(a.u2(offsetA + 1), b.u2(offsetB + 1))
+                            && sameConstant(a.u2(offsetA + 3), b.u2(offsetB + 3));
+            }
+        }
+
+        /**
+         * 比较 u2 个数之后跟着的常量池索引列表
+         */
+        private boolean sameList(int offsetA, int offsetB) {
+            int count = a.u2(offsetA);
+            if (count != b.u2(offsetB)) {
+                return false;
+            }
+            for (int i = 1; i <= count; i++) {
+                if (!sameConstant(a.u2(offsetA + 2 * i), b.u2(offsetB + 2 * i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void compareMembers(String section, int[] membersA, int[] membersB) {
+            if (samePool && sameBytes(membersA[0], membersA[membersA.length - 1],
+                    membersB[0], membersB[membersB.length - 1])) {
+                return;
+            }
+            Map<String, Integer> indexB = new HashMap<>();
+            for (int j = 0; j < membersB.length - 1; j++) {
+                indexB.put(b.memberKey(membersB[j]), j);
+            }
+            boolean[] matched = new boolean[membersB.length - 1];
+            for (int i = 0; i < membersA.length - 1; i++) {
+                String key = a.memberKey(membersA[i]);
+                Integer j = indexB.get(key);
+                if (j == null) {
+                    changes.add(section + ": - " + key);
+                    continue;
+                }
+                matched[j] = true;
+                int startA = membersA[i];
+                int startB = membersB[j];
+                if (samePool && sameBytes(startA, membersA[i + 1], startB, membersB[j + 1])) {
+                    continue;
+                }
+                List<String> differs = new ArrayList<>();
+                if (a.u2(startA) != b.u2(startB)) {
+                    differs.add("AccessFlags");
+                }
+                compareAttributes(startA + 6, startB + 6, differs);
+                if (!differs.isEmpty()) {
+                    changes.add(section + ": ~ " + key + " " + differs);
+                }
+            }
+            for (int j = 0; j < matched.length; j++) {
+                if (!matched[j]) {
+                    changes.add(section + ": + " + b.memberKey(membersB[j]));
+                }
+            }
+        }
+
+        /**
+         * 比较两个属性表, 按属性名对应, 不同, 新增和删除的属性名加入 differs
+         *
+         * @param offsetA attributes_count 的位置
+         */
+        private void compareAttributes(int offsetA, int offsetB, List<String> differs) {
+            if (samePool && sameBytes(offsetA, a.attributesEnd(offsetA), offsetB, b.attributesEnd(offsetB))) {
+                return;
+            }
+            int countA = a.u2(offsetA);
+            int countB = b.u2(offsetB);
+            int[] startsB = new int[countB];
+            boolean[] matched = new boolean[countB];
+            int offset = offsetB + 2;
+            for (int j = 0; j < countB; j++) {
+                startsB[j] = offset;
+                offset += 6 + Utils.read4Number(b.bytes, offset + 2);
+            }
+            offset = offsetA + 2;
+            for (int i = 0; i < countA; i++) {
+                int nameIndex = a.u2(offset);
+                int j = 0;
+                while (j < countB && (matched[j] || !sameConstant(nameIndex, b.u2(startsB[j])))) {
+                    j++;
+                }
+                String name = a.context.utf8(nameIndex);
+                int length = Utils.read4Number(a.bytes, offset + 2);
+                if (j == countB) {
+                    differs.add("-" + name);
+                } else {
+                    matched[j] = true;
+                    int kind = a.context.constantPool.attributeKind(nameIndex);
+                    int lengthB = Utils.read4Number(b.bytes, startsB[j] + 2);
+                    if (kind == AttributeKind.CODE) {
+                        compareCode(offset + 6, length, startsB[j] + 6, lengthB, differs);
+                    } else if (!sameAttribute(kind, nameIndex, offset + 6, length, startsB[j] + 6, lengthB)) {
+                        differs.add(name);
+                    }
+                }
+                offset += 6 + length;
+            }
+            for (int j = 0; j < countB; j++) {
+                if (!matched[j]) {
+                    differs.add("+" + b.context.utf8(b.u2(startsB[j])));
+                }
+            }
+        }
+
+        /**
+         * 比较两个属性的内容, 不包括属性名和长度
+         */
+        private boolean sameAttribute(int kind, int nameIndex, int offsetA, int lengthA, int offsetB, int lengthB) {
+            if (lengthA != lengthB) {
+                return false;
+            }
+            if (samePool) {
+                return sameBytes(offsetA, offsetA + lengthA, offsetB, offsetB + lengthB);
+            }
+            switch (kind) {
+                case AttributeKind.CONSTANT_VALUE:
+                case AttributeKind.SIGNATURE:
+                case AttributeKind.SOURCE_FILE:
+                    return sameConstant(a.u2(offsetA), b.u2(offsetB));
+                case AttributeKind.EXCEPTIONS:
+                    return sameList(offsetA, offsetB);
+                case AttributeKind.INNER_CLASSES:
+                    // inner_class_info, outer_class_info, inner_name, inner_class_access_flags
+                    return sameEntries(offsetA, offsetB, 8, 0b0111);
+                case AttributeKind.LOCAL_VARIABLE_TABLE:
+                case AttributeKind.LOCAL_VARIABLE_TYPE_TABLE:
+                    // start_pc, length, name_index, descriptor_index/signature_index, index
+                    return sameEntries(offsetA, offsetB, 10, 0b01100);
+                case AttributeKind.STACK_MAP_TABLE:
+                    return sameStackMap(offsetA, offsetB);
+                default:
+                    break;
+            }
+            // 没有解析但是常见的, 只包含常量池索引的属性
+            if (a.context.utf8Equals(nameIndex, "NestHost")) {
+                return sameConstant(a.u2(offsetA), b.u2(offsetB));
+            }
+            if (a.context.utf8Equals(nameIndex, "NestMembers") || a.context.utf8Equals(nameIndex, "PermittedSubclasses")) {
+                return sameList(offsetA, offsetB);
+            }
+            if (a.context.utf8Equals(nameIndex, "BootstrapMethods")) {
+                return sameBootstrapMethods(offsetA, offsetB);
+            }
+            return sameBytes(offsetA, offsetA + lengthA, offsetB, offsetB + lengthB);
+        }
+
+        /**
+         * BootstrapMethods: u2 个数, 每项是 u2 bootstrap_method_ref 和 u2 个数之后的 bootstrap_arguments
+         */
+        private boolean sameBootstrapMethods(int offsetA, int offsetB) {
+            int count = a.u2(offsetA);
+            offsetA += 2;
+            offsetB += 2;
+            for (int i = 0; i < count; i++) {
+                if (!sameConstant(a.u2(offsetA), b.u2(offsetB)) || !sameList(offsetA + 2, offsetB + 2)) {
+                    return false;
+                }
+                int size = 4 + 2 * a.u2(offsetA + 2);
+                offsetA += size;
+                offsetB += size;
+            }
+            return true;
+        }
+
+        /**
+         * 比较 u2 个数之后跟着的等长表项, 每项由若干 u2 组成, constants 的第 k 位表示第 k 个 u2 是常量池索引
+         */
+        private boolean sameEntries(int offsetA, int offsetB, int entrySize, int constants) {
+            int count = a.u2(offsetA);
+            for (int i = 0; i < count; i++) {
+                int entryA = offsetA + 2 + i * entrySize;
+                int entryB = offsetB + 2 + i * entrySize;
+                for (int k = 0; k < entrySize / 2; k++) {
+                    int valueA = a.u2(entryA + 2 * k);
+                    int valueB = b.u2(entryB + 2 * k);
+                    if ((constants & 1 << k) != 0 ? !sameConstant(valueA, valueB) : valueA != valueB) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 比较 Code 属性: max_stack, max_locals 和每条指令, 常量池操作数按常量内容比较; 异常表的 catch_type 按类名比较.
+         * 这些不同时 differs 中加入 Code, 否则只是嵌套的属性不同时加入 Code/属性名, 例如 Code/LineNumberTable
+         */
+        private void compareCode(int offsetA, int lengthA, int offsetB, int lengthB, List<String> differs) {
+            if (samePool && sameBytes(offsetA, offsetA + lengthA, offsetB, offsetB + lengthB)) {
+                return;
+            }
+            if (!sameInstructions(offsetA, offsetB)) {
+                differs.add("Code");
+                return;
+            }
+            int tableA = offsetA + 8 + Utils.read4Number(a.bytes, offsetA + 4);
+            int tableB = offsetB + 8 + Utils.read4Number(b.bytes, offsetB + 4);
+            List<String> nested = new ArrayList<>();
+            compareAttributes(tableA + 2 + 8 * a.u2(tableA), tableB + 2 + 8 * b.u2(tableB), nested);
+            for (String name : nested) {
+                differs.add("Code/" + name);
+            }
+        }
+
+        /**
+         * 比较 Code 属性中嵌套的属性之前的部分
+         */
+        private boolean sameInstructions(int offsetA, int offsetB) {
+            int codeLength = Utils.read4Number(a.bytes, offsetA + 4);
+            if (!sameBytes(offsetA, offsetA + 8, offsetB, offsetB + 8)) {
+                return false;
+            }
+            int codeA = offsetA + 8;
+            int codeB = offsetB + 8;
+            cursor.reset(a.bytes, codeA, codeLength);
+            while (cursor.next()) {
+                int pc = cursor.pc();
+                int format = Instruction.format(cursor.opcode());
+                int operands = format == Instruction.CP1 ? 1 : format == Instruction.CP2
+                        || format == Instruction.INVOKEINTERFACE || format == Instruction.INVOKEDYNAMIC
+                        || format == Instruction.MULTIANEWARRAY ? 2 : 0;
+                if (cursor.wide() || operands == 0) {
+                    if (!sameBytes(codeA + pc, codeA + pc + cursor.length(), codeB + pc, codeB + pc + cursor.length())) {
+                        return false;
+                    }
+                    continue;
+                }
+                int indexB = operands == 1
+                        ? Utils.readUnsignedByte(b.bytes, codeB + pc + 1) : b.u2(codeB + pc + 1);
+                if (a.bytes.get(codeA + pc) != b.bytes.get(codeB + pc)
+                        || !sameConstant(cursor.operand(0), indexB)
+                        || !sameBytes(codeA + pc + 1 + operands, codeA + pc + cursor.length(),
+                        codeB + pc + 1 + operands, codeB + pc + cursor.length())) {
+                    return false;
+                }
+            }
+            int tableA = codeA + codeLength;
+            int tableB = codeB + codeLength;
+            if (a.u2(tableA) != b.u2(tableB)) {
+                return false;
+            }
+            // start_pc, end_pc, handler_pc, catch_type
+            return sameEntries(tableA, tableB, 8, 0b1000);
+        }
+
+        private boolean sameStackMap(int offsetA, int offsetB) {
+            StackMapTable tableA = new StackMapTable();
+            tableA.parse(a.context, a.bytes, offsetA);
+            StackMapTable tableB = new StackMapTable();
+            tableB.parse(b.context, b.bytes, offsetB);
+            if (tableA.numberOfEntries != tableB.numberOfEntries) {
+                return false;
+            }
+            for (int i = 0; i < tableA.numberOfEntries; i++) {
+                if (tableA.frameType(i) != tableB.frameType(i) || tableA.offset(i) != tableB.offset(i)
+                        || tableA.localCount(i) != tableB.localCount(i) || tableA.stackCount(i) != tableB.stackCount(i)) {
+                    return false;
+                }
+                int types = tableA.localCount(i) + tableA.stackCount(i);
+                for (int j = 0; j < types; j++) {
+                    int typeA = tableA.type(i, j);
+                    int typeB = tableB.type(i, j);
+                    if (StackMapTable.typeTag(typeA) != StackMapTable.typeTag(typeB)) {
+                        return false;
+                    }
+                    boolean same = StackMapTable.typeTag(typeA) == StackMapTable.ITEM_OBJECT
+                            ? sameConstant(StackMapTable.typeValue(typeA), StackMapTable.typeValue(typeB))
+                            : typeA == typeB;
+                    if (!same) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package site.jiyang;
+
+
+import java.util.Arrays;
+
+/**
+ * 一个类文件解析后的各个部分
+ *
+ * @see BytecodeParser#read(java.nio.ByteBuffer)
+ */
+final class ClassFile {
+    MagicNumber magicNumber;
+    Version version;
+    ConstantPool constantPool;
+    AccessFlags accessFlags;
+    ClassIndex thisClass;
+    ClassIndex superClass;
+    Interfaces interfaces;
+    FieldOrMethod fields;
+    FieldOrMethod methods;
+    AttributeInfo[] attributes;
+
+    /**
+     * 完成所有在访问时才进行的解码和计算: 常量项, 字符串, 属性名的种类和 StackMapTable 中帧的位置.
+     * 之后读取这个 ClassFile 不会再写入任何字段, 放入 {@link ClassCache} 之前调用
+     */
+    void resolveAll() {
+        constantPool.resolveAll();
+        for (int i = 1; i < constantPool.poolCount; i++) {
+            constantPool.attributeKind(i);
+        }
+        if (methods == null) {
+            return;
+        }
+        for (FieldOrMethod.Entity method : methods.entities()) {
+            CodeInfo code = method.code();
+            if (code == null || code.attributes == null) {
+                continue;
+            }
+            for (AttributeInfo attribute : code.attributes) {
+                if (attribute.info() instanceof StackMapTable && ((StackMapTable) attribute.info()).numberOfEntries > 0) {
+                    ((StackMapTable) attribute.info()).offset(0);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClassFile{" +
+                "magicNumber=" + magicNumber +
+                ", version=" + version +
+                ", constantPool=" + constantPool +
+                ", accessFlags=" + accessFlags +
+                ", thisClass=" + thisClass +
+                ", superClass=" + superClass +
+                ", interfaces=" + interfaces +
+                ", fields=" + fields +
+                ", methods=" + methods +
+                ", attributes=" + Arrays.toString(attributes) +
+                '}';
+    }
+}
@@ -0,0 +1,336 @@
+package site.jiyang;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 整个 classpath 的继承关系索引
+ * 每个类名对应一个 int id, 父类和子类关系以 CSR 形式存放在 int 数组中:
+ * <pre>
+ * superclass[id]                         父类的 id, 没有时为 -1
+ * interfaces[interfaceStart[id] .. interfaceStart[id + 1])  直接实现或继承的接口
+ * subtypes[subtypeStart[id] .. subtypeStart[id + 1])        直接子类, 实现类和子接口
+ * </pre>
+ * 只被引用但没有在 classpath 中定义的类(例如 java/lang/Object)也有 id, 但 {@link #isDefined(int)} 为 false
+ * 建好之后只读, 可以在多个线程中同时查询
+ */
+final class ClassHierarchy {
+    static final int ACC_INTERFACE = 0x0200;
+    private static final int DEFINED = 1, INTERFACE = 2;
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final byte[] flags;
+    private final int[] superclass;
+    private final int[] interfaceStart, interfaces;
+    private final int[] subtypeStart, subtypes;
+
+    /**
+     * 遍历查询时标记已经访问过的 id, 每个线程一个, 用递增的 epoch 代替清空
+     */
+    private final ThreadLocal<Marks> marks;
+
+    /**
+     * 一个类文件中读出的继承关系
+     */
+    private static final class Declaration {
+        /**
+         * 类文件在 classpath 中的序号, 同名的类只保留序号最小的
+         */
+        final int input;
+        final int accessFlags;
+        final String name;
+        final String superName;
+        final String[] interfaceNames;
+
+        Declaration(int input, int accessFlags, String name, String superName, String[] interfaceNames) {
+            this.input = input;
+            this.accessFlags = accessFlags;
+            this.name = name;
+            this.superName = superName;
+            this.interfaceNames = interfaceNames;
+        }
+    }
+
+    private static final class Marks {
+        final int[] epochs;
+        int epoch;
+
+        Marks(int size) {
+            epochs = new int[size];
+        }
+
+        int next() {
+            if (++epoch == 0) {
+                Arrays.fill(epochs, 0);
+                epoch = 1;
+            }
+            return epoch;
+        }
+    }
+
+    /**
+     * 并行读取 paths 中所有类文件的 this_class, super_class 和接口表, 建立索引
+     * 读取完接口表就结束, 不解析字段, 方法和属性
+     * 和 classpath 一样, 同名的类以 paths 中靠前的为准, id 也按 paths 中的顺序分配, 与线程调度无关
+     */
+    static ClassHierarchy build(List<String> paths, List<BatchParser.Failure> failures) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return build(pool, paths, failures);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 在已有的线程池中建立索引, 不关闭 pool
+     */
+    static ClassHierarchy build(ForkJoinPool pool, List<String> paths, List<BatchParser.Failure> failures)
+            throws IOException {
+        ConcurrentLinkedQueue<Declaration> declarations = new ConcurrentLinkedQueue<>();
+        BatchParser batchParser = new BatchParser(pool, ParseOptions.HIERARCHY).symbols(new SymbolTable());
+        BatchParser.Result result = batchParser.accept(paths, index -> new ClassVisitor() {
+            private ParseContext context;
+
+            @Override
+            void visitHeader(ParseContext context, int magic, int minorVersion, int majorVersion) {
+                this.context = context;
+            }
+
+            @Override
+            void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces) {
+                String[] interfaceNames = new String[interfaces.length];
+                for (int i = 0; i < interfaces.length; i++) {
+                    interfaceNames[i] = context.className(interfaces[i]);
+                }
+                declarations.add(new Declaration(index, accessFlags, context.className(thisClass),
+                        superClass == 0 ? null : context.className(superClass), interfaceNames));
+            }
+        });
+        failures.addAll(result.failures);
+        List<Declaration> ordered = new ArrayList<>(declarations);
+        ordered.sort(Comparator.comparingInt(declaration -> declaration.input));
+        return new ClassHierarchy(ordered);
+    }
+
+    /**
+     * @param declarations 按 {@link Declaration#input} 排好序
+     */
+    private ClassHierarchy(List<Declaration> declarations) {
+        Map<String, Integer> ids = new HashMap<>(declarations.size() * 2);
+        List<String> names = new ArrayList<>(declarations.size());
+        // 先给定义的类分配 id, 多个 classpath 中有同名的类时只保留第一个
+        List<Declaration> defined = new ArrayList<>(declarations.size());
+        for (Declaration declaration : declarations) {
+            if (declaration.name != null && !ids.containsKey(declaration.name)) {
+                ids.put(declaration.name, names.size());
+                names.add(declaration.name);
+                defined.add(declaration);
+            }
+        }
+        int definedCount = names.size();
+        int[] superIds = new int[definedCount];
+        int[][] interfaceIds = new int[definedCount][];
+        for (int id = 0; id < definedCount; id++) {
+            Declaration declaration = defined.get(id);
+            superIds[id] = declaration.superName == null ? -1 : intern(declaration.superName, ids, names);
+            interfaceIds[id] = new int[declaration.interfaceNames.length];
+            for (int i = 0; i < declaration.interfaceNames.length; i++) {
+                interfaceIds[id][i] = intern(declaration.interfaceNames[i], ids, names);
+            }
+        }
+
+        int count = names.size();
+        this.names = names.toArray(new String[0]);
+        this.ids = ids;
+        this.flags = new byte[count];
+        this.superclass = new int[count];
+        Arrays.fill(superclass, -1);
+        this.interfaceStart = new int[count + 1];
+        int[] subtypeCount = new int[count + 1];
+        int interfaceTotal = 0;
+        for (int id = 0; id < definedCount; id++) {
+            flags[id] = (byte) (DEFINED | ((defined.get(id).accessFlags & ACC_INTERFACE) != 0 ? INTERFACE : 0));
+            superclass[id] = superIds[id];
+            if (superIds[id] >= 0) {
+                subtypeCount[superIds[id]]++;
+            }
+            for (int interfaceId : interfaceIds[id]) {
+                subtypeCount[interfaceId]++;
+            }
+            interfaceStart[id] = interfaceTotal;
+            interfaceTotal += interfaceIds[id].length;
+        }
+        for (int id = definedCount; id <= count; id++) {
+            interfaceStart[id] = interfaceTotal;
+        }
+        this.interfaces = new int[interfaceTotal];
+        for (int id = 0; id < definedCount; id++) {
+            System.arraycopy(interfaceIds[id], 0, interfaces, interfaceStart[id], interfaceIds[id].length);
+        }
+
+        // 前缀和得到每个类的子类区间的起点, 再按起点填入
+        this.subtypeStart = new int[count + 1];
+        for (int id = 0; id < count; id++) {
+            subtypeStart[id + 1] = subtypeStart[id] + subtypeCount[id];
+        }
+        this.subtypes = new int[subtypeStart[count]];
+        int[] next = Arrays.copyOf(subtypeStart, count);
+        for (int id = 0; id < definedCount; id++) {
+            if (superIds[id] >= 0) {
+                subtypes[next[superIds[id]]++] = id;
+            }
+            for (int interfaceId : interfaceIds[id]) {
+                subtypes[next[interfaceId]++] = id;
+            }
+        }
+        this.marks = ThreadLocal.withInitial(() -> new Marks(count));
+    }
+
+    private static int intern(String name, Map<String, Integer> ids, List<String> names) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @param name 内部形式的类名, 例如 java/lang/String
+     * @return 不存在时返回 -1
+     */
+    int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    boolean isDefined(int id) {
+        return (flags[id] & DEFINED) != 0;
+    }
+
+    boolean isInterface(int id) {
+        return (flags[id] & INTERFACE) != 0;
+    }
+
+    /**
+     * @return 父类的 id, 没有父类或者类没有定义时返回 -1
+     */
+    int superclass(int id) {
+        return superclass[id];
+    }
+
+    /**
+     * 父类链, 从直接父类到最顶层的类(通常是 java/lang/Object)
+     */
+    int[] superclassChain(int id) {
+        int length = 0;
+        for (int current = superclass[id]; current >= 0 && length < names.length; current = superclass[current]) {
+            length++;
+        }
+        int[] chain = new int[length];
+        int current = id;
+        for (int i = 0; i < length; i++) {
+            current = superclass[current];
+            chain[i] = current;
+        }
+        return chain;
+    }
+
+    /**
+     * 直接实现或继承的接口
+     */
+    int[] interfaces(int id) {
+        return Arrays.copyOfRange(interfaces, interfaceStart[id], interfaceStart[id + 1]);
+    }
+
+    /**
+     * 所有直接和间接的子类型(子类, 实现类和子接口), 不包括 id 自己, 按广度优先的顺序
+     */
+    int[] subtypes(int id) {
+        return collectSubtypes(id, false);
+    }
+
+    /**
+     * 所有直接或间接实现了接口 id 的类, 不包括接口
+     */
+    int[] implementors(int id) {
+        return collectSubtypes(id, true);
+    }
+
+    private int[] collectSubtypes(int id, boolean classesOnly) {
+        Marks marks = this.marks.get();
+        int epoch = marks.next();
+        int[] queue = new int[16];
+        int head = 0, tail = 0;
+        marks.epochs[id] = epoch;
+        queue[tail++] = id;
+        int resultCount = 0;
+        int[] result = new int[16];
+        while (head < tail) {
+            int current = queue[head++];
+            for (int i = subtypeStart[current]; i < subtypeStart[current + 1]; i++) {
+                int subtype = subtypes[i];
+                if (marks.epochs[subtype] == epoch) {
+                    continue;
+                }
+                marks.epochs[subtype] = epoch;
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = subtype;
+                if (!classesOnly || !isInterface(subtype)) {
+                    if (resultCount == result.length) {
+                        result = Arrays.copyOf(result, resultCount * 2);
+                    }
+                    result[resultCount++] = subtype;
+                }
+            }
+        }
+        return Arrays.copyOf(result, resultCount);
+    }
+
+    /**
+     * 把 id 转换为类名, 输出结果时使用
+     */
+    String[] names(int[] ids) {
+        String[] result = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = names[ids[i]];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        int defined = 0;
+        for (byte flag : flags) {
+            if ((flag & DEFINED) != 0) {
+                defined++;
+            }
+        }
+        return "ClassHierarchy{" +
+                "classes=" + names.length +
+                ", defined=" + defined +
+                ", edges=" + subtypes.length +
+                '}';
+    }
+}
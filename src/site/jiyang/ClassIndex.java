@@ -1,6 +1,8 @@
 package site.jiyang;
 
 
+import java.nio.ByteBuffer;
+
 /**
  * 类索引
  * 用于解析自身类和父类在常量池的索引
@@ -9,8 +11,8 @@ class ClassIndex extends Section {
 
     private int classInfoIndex;
 
-    public ClassIndex(int start, byte[] bytes) {
-        super(start, bytes);
+    public ClassIndex(ParseContext context, int start, ByteBuffer bytes) {
+        super(context, start, bytes);
     }
 
     @Override
@@ -25,11 +27,10 @@ class ClassIndex extends Section {
 
     @Override
     public String toString() {
-        CLASS clasz = (CLASS) BytecodeParser.constantItemHashMap.get(classInfoIndex);
-        UTF8 utf8 = (UTF8) BytecodeParser.constantItemHashMap.get(clasz.index);
+        CLASS clasz = (CLASS) context.constantItem(classInfoIndex);
         return "ClassIndex{" +
                 "classInfoIndex=" + classInfoIndex +
-                " -> " + clasz.index + " -> " + utf8.value +
+                " -> " + clasz.index + " -> " + context.utf8(clasz.index) +
                 '}';
     }
 }
@@ -0,0 +1,207 @@
+package site.jiyang;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 批量模式下的一个待解析的类文件, 可能来自目录, 也可能来自 jar 包
+ */
+abstract class ClassInput {
+    final String name;
+    /**
+     * 在目录或 jar 包中的相对路径, 例如 a/b/C.class, 用来对应两次构建中的同一个类文件
+     */
+    final String entry;
+
+    ClassInput(String name, String entry) {
+        this.name = name;
+        this.entry = entry;
+    }
+
+    /**
+     * 目录中的类文件直接映射到内存, jar 包中的类文件需要解压, 所以读到堆中
+     */
+    abstract ByteBuffer read() throws IOException;
+
+    /**
+     * 类文件的字节数, 不需要读取内容
+     */
+    abstract long size() throws IOException;
+
+    /**
+     * 类文件的绝对位置, 目录中的类文件为绝对路径, jar 包中的为 jar 包的绝对路径!/条目名
+     */
+    abstract String location();
+
+    /**
+     * 同一个位置上类文件的版本, 由 inode, 修改时间和大小等组成, 不需要读取内容; 文件没有变化时不变, 见 {@link ParseCache}
+     */
+    abstract String stamp() throws IOException;
+
+    /**
+     * 展开一个输入: 目录, jar/zip 包, 单个 .class 文件, 或者用路径分隔符连接的 classpath
+     *
+     * @param opened 打开的 jar 包, 所有输入读取完毕后由调用方关闭
+     */
+    static void collect(String path, List<ClassInput> inputs, List<Closeable> opened) throws IOException {
+        for (String element : path.split(File.pathSeparator)) {
+            if (element.isEmpty()) {
+                continue;
+            }
+            File file = new File(element);
+            if (file.isDirectory()) {
+                collectDirectory(file, "", inputs);
+            } else if (isArchive(element)) {
+                ZipFile zip = new ZipFile(file);
+                opened.add(zip);
+                collectArchive(zip, stamp(file), inputs);
+            } else if (file.isFile()) {
+                inputs.add(new FileInput(file, file.getName()));
+            } else {
+                throw new IOException("Not found: " + element);
+            }
+        }
+    }
+
+    private static boolean isArchive(String path) {
+        return path.endsWith(".jar") || path.endsWith(".zip");
+    }
+
+    private static void collectDirectory(File dir, String prefix, List<ClassInput> inputs) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectDirectory(child, prefix + child.getName() + "/", inputs);
+            } else if (child.getName().endsWith(".class")) {
+                inputs.add(new FileInput(child, prefix + child.getName()));
+            }
+        }
+    }
+
+    private static void collectArchive(ZipFile zip, String zipStamp, List<ClassInput> inputs) {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                inputs.add(new ZipInput(zip, zipStamp, entry));
+            }
+        }
+    }
+
+    /**
+     * 文件的 inode(支持时), 纳秒精度的修改时间和大小, 只需要一次 stat
+     */
+    private static String stamp(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.fileKey() + ":" + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                + ":" + attributes.size();
+    }
+
+    private static class FileInput extends ClassInput {
+        private final File file;
+
+        FileInput(File file, String entry) {
+            super(file.getPath(), entry);
+            this.file = file;
+        }
+
+        @Override
+        ByteBuffer read() throws IOException {
+            return Utils.map(file);
+        }
+
+        @Override
+        long size() {
+            return file.length();
+        }
+
+        @Override
+        String location() {
+            return file.getAbsolutePath();
+        }
+
+        @Override
+        String stamp() throws IOException {
+            return ClassInput.stamp(file);
+        }
+    }
+
+    private static class ZipInput extends ClassInput {
+        private final ZipFile zip;
+        private final String zipStamp;
+        private final ZipEntry entry;
+
+        /**
+         * @param zipStamp jar 包的标识, 每个 jar 包只计算一次
+         */
+        ZipInput(ZipFile zip, String zipStamp, ZipEntry entry) {
+            super(zip.getName() + "!/" + entry.getName(), entry.getName());
+            this.zip = zip;
+            this.zipStamp = zipStamp;
+            this.entry = entry;
+        }
+
+        @Override
+        long size() {
+            return entry.getSize();
+        }
+
+        @Override
+        String location() {
+            return new File(zip.getName()).getAbsolutePath() + "!/" + entry.getName();
+        }
+
+        /**
+         * jar 包的版本加上条目的 CRC-32 和大小, 这些在中央目录中已经有了, 不需要解压
+         */
+        @Override
+        String stamp() {
+            return zipStamp + ":" + entry.getCrc() + ":" + entry.getSize();
+        }
+
+        /**
+         * 大小已知时直接读到最终的数组中, 只有大小未知时才经过 ByteArrayOutputStream
+         */
+        @Override
+        ByteBuffer read() throws IOException {
+            try (InputStream in = zip.getInputStream(entry)) {
+                long size = entry.getSize();
+                if (size >= 0 && size <= Integer.MAX_VALUE) {
+                    byte[] content = new byte[(int) size];
+                    int offset = 0;
+                    while (offset < content.length) {
+                        int read = in.read(content, offset, content.length - offset);
+                        if (read < 0) {
+                            throw new EOFException("Unexpected end of " + name);
+                        }
+                        offset += read;
+                    }
+                    return ByteBuffer.wrap(content);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+                byte[] buff = new byte[8192];
+                int read;
+                while ((read = in.read(buff)) != -1) {
+                    out.write(buff, 0, read);
+                }
+                return ByteBuffer.wrap(out.toByteArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 顺序读取类文件, 把每个部分作为事件交给 {@link ClassVisitor}, 不构建完整的 {@link ClassFile}
+ * 字段和方法的属性只有在 visitor 需要时才会回调, Code 属性只有在回调 visitCode 时才会解析
+ */
+final class ClassReader {
+    private final ByteBuffer bytes;
+    private final SymbolTable symbols;
+
+    ClassReader(ByteBuffer bytes) {
+        this(bytes, null);
+    }
+
+    /**
+     * @param symbols 常量池中的字符串从这里取得, 为 null 时各自解码
+     */
+    ClassReader(ByteBuffer bytes, SymbolTable symbols) {
+        this.bytes = bytes;
+        this.symbols = symbols;
+    }
+
+    void accept(ClassVisitor visitor) {
+        accept(visitor, ParseOptions.ALL);
+    }
+
+    /**
+     * 打开 {@link ParseMetrics} 时和 {@link BytecodeParser} 一样按阶段统计, 每个阶段包括 visitor 处理这一部分的时间
+     *
+     * @param options 没有选择的部分不会回调; 之后的部分都不需要时不再继续读取, 直接回调 visitEnd
+     */
+    void accept(ClassVisitor visitor, int options) {
+        ParseContext context = new ParseContext(bytes, options, symbols);
+        read(context, visitor, ParseMetrics.recorder());
+        visitor.visitEnd();
+    }
+
+    private void read(ParseContext context, ClassVisitor visitor, ParseMetrics.Recorder metrics) {
+        int magic = Utils.read4Number(bytes, 0);
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.MAGIC_NUMBER, 4);
+        }
+        int minorVersion = Utils.read2Number(bytes, 4);
+        int majorVersion = Utils.read2Number(bytes, 6);
+        // 魔数和版本号在同一个回调中交给 visitor, 回调的时间算在 Version 中
+        visitor.visitHeader(context, magic, minorVersion, majorVersion);
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.VERSION, 4);
+        }
+
+        ConstantPool constantPool = new ConstantPool(context, 8, bytes);
+        constantPool.parse();
+        context.constantPool = constantPool;
+        for (int i = 1; i < constantPool.poolCount; i++) {
+            if (constantPool.tag(i) != 0) {
+                visitor.visitConstant(constantPool, i);
+            }
+        }
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.CONSTANT_POOL, constantPool.size());
+        }
+
+        int offset = constantPool.end();
+        boolean more = context.has(ParseOptions.FIELDS | ParseOptions.METHODS | ParseOptions.CLASS_ATTRIBUTES);
+        if (!more && !context.has(ParseOptions.INTERFACES)) {
+            visitor.visitClass(Utils.read2Number(bytes, offset), Utils.read2Number(bytes, offset + 2),
+                    Utils.read2Number(bytes, offset + 4), new int[0]);
+            if (metrics != null) {
+                metrics.phase(ParseMetrics.ACCESS_FLAGS, 2);
+                metrics.phase(ParseMetrics.CLASS_INDEX, 4);
+            }
+            return;
+        }
+        int accessFlags = Utils.read2Number(bytes, offset);
+        int thisClass = Utils.read2Number(bytes, offset + 2);
+        int superClass = Utils.read2Number(bytes, offset + 4);
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.ACCESS_FLAGS, 2);
+            metrics.phase(ParseMetrics.CLASS_INDEX, 4);
+        }
+        int interfaceCount = Utils.read2Number(bytes, offset + 6);
+        offset += 8;
+        int[] interfaces = new int[interfaceCount];
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces[i] = Utils.read2Number(bytes, offset);
+            offset += 2;
+        }
+        visitor.visitClass(accessFlags, thisClass, superClass, interfaces);
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.INTERFACES, 2 + interfaceCount * 2);
+        }
+        if (!more) {
+            return;
+        }
+
+        int fieldsStart = offset;
+        offset = context.has(ParseOptions.FIELDS)
+                ? readMembers(context, visitor, offset, false) : FieldOrMethod.skip(bytes, offset);
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.FIELDS, offset - fieldsStart);
+        }
+        if (!context.has(ParseOptions.METHODS | ParseOptions.CLASS_ATTRIBUTES)) {
+            return;
+        }
+        int methodsStart = offset;
+        offset = context.has(ParseOptions.METHODS)
+                ? readMembers(context, visitor, offset, true) : FieldOrMethod.skip(bytes, offset);
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.METHODS, offset - methodsStart);
+        }
+        if (!context.has(ParseOptions.CLASS_ATTRIBUTES)) {
+            return;
+        }
+
+        int attributesStart = offset;
+        int attributeCount = Utils.read2Number(bytes, offset);
+        offset += 2;
+        visitor.visitClassAttributes(attributeCount);
+        for (int i = 0; i < attributeCount; i++) {
+            int length = Utils.read4Number(bytes, offset + 2);
+            visitor.visitAttribute(Utils.read2Number(bytes, offset), offset + 6, length);
+            offset += 6 + length;
+        }
+        if (metrics != null) {
+            metrics.phase(ParseMetrics.ATTRIBUTES, offset - attributesStart);
+        }
+    }
+
+    /**
+     * @return 字段或方法表之后的位置
+     */
+    private int readMembers(ParseContext context, ClassVisitor visitor, int offset, boolean methods) {
+        int count = Utils.read2Number(bytes, offset);
+        offset += 2;
+        if (methods) {
+            visitor.visitMethods(count);
+        } else {
+            visitor.visitFields(count);
+        }
+        for (int i = 0; i < count; i++) {
+            int accessFlags = Utils.read2Number(bytes, offset);
+            int nameIndex = Utils.read2Number(bytes, offset + 2);
+            int descriptorIndex = Utils.read2Number(bytes, offset + 4);
+            int attributeCount = Utils.read2Number(bytes, offset + 6);
+            offset += 8;
+            boolean visitAttributes = methods
+                    ? visitor.visitMethod(accessFlags, nameIndex, descriptorIndex)
+                    : visitor.visitField(accessFlags, nameIndex, descriptorIndex);
+            for (int j = 0; j < attributeCount; j++) {
+                int attributeNameIndex = Utils.read2Number(bytes, offset);
+                int length = Utils.read4Number(bytes, offset + 2);
+                if (visitAttributes) {
+                    if (methods && context.constantPool.attributeKind(attributeNameIndex) == AttributeKind.CODE) {
+                        if (context.has(ParseOptions.CODE)) {
+                            CodeInfo code = new CodeInfo();
+                            code.parse(context, bytes, offset + 6);
+                            visitor.visitCode(code);
+                        }
+                    } else if (context.has(ParseOptions.ATTRIBUTES)) {
+                        visitor.visitAttribute(attributeNameIndex, offset + 6, length);
+                    }
+                }
+                // 不需要的属性直接根据 attribute_length 跳过
+                offset += 6 + length;
+            }
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,154 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 从 {@link BinarySink} 输出的记录中读出的类结构摘要, 不需要原始的类文件
+ * 没有的类名为 null, 没有解析的部分为空数组
+ */
+final class ClassSummary {
+    int minorVersion;
+    int majorVersion;
+    int constantPoolCount;
+    int accessFlags;
+    String thisClass;
+    String superClass;
+    String[] interfaces;
+    Member[] fields;
+    Member[] methods;
+    Attribute[] attributes;
+
+    static final class Member {
+        int accessFlags;
+        String name;
+        String descriptor;
+        Attribute[] attributes;
+
+        @Override
+        public String toString() {
+            return "Member{" +
+                    "accessFlags=" + accessFlags +
+                    ", name='" + name + '\'' +
+                    ", descriptor='" + descriptor + '\'' +
+                    ", attributes=" + Arrays.toString(attributes) +
+                    '}';
+        }
+    }
+
+    static final class Attribute {
+        String name;
+        int length; //Code 属性为 code_length
+        int maxStack = -1; //只有 Code 属性有
+        int maxLocals = -1; //只有 Code 属性有
+
+        @Override
+        public String toString() {
+            if (maxStack < 0) {
+                return name + "(" + length + ")";
+            }
+            return name + "{maxStack=" + maxStack + ", maxLocals=" + maxLocals + ", codeLength=" + length + '}';
+        }
+    }
+
+    /**
+     * @param record 从 record_length 开始的一条完整记录
+     */
+    static ClassSummary read(ByteBuffer record) {
+        Reader reader = new Reader(record, 4);
+        ClassSummary summary = new ClassSummary();
+        summary.minorVersion = reader.u2();
+        summary.majorVersion = reader.u2();
+        summary.constantPoolCount = reader.u2();
+        summary.accessFlags = reader.u2();
+        summary.thisClass = reader.utf8();
+        summary.superClass = reader.utf8();
+        summary.interfaces = new String[reader.u2()];
+        for (int i = 0; i < summary.interfaces.length; i++) {
+            summary.interfaces[i] = reader.utf8();
+        }
+        summary.fields = reader.members();
+        summary.methods = reader.members();
+        summary.attributes = reader.attributes();
+        return summary;
+    }
+
+    /**
+     * 顺序读取记录的游标
+     */
+    private static final class Reader {
+        private final ByteBuffer bytes;
+        private int offset;
+
+        Reader(ByteBuffer bytes, int offset) {
+            this.bytes = bytes;
+            this.offset = offset;
+        }
+
+        int u2() {
+            int value = Utils.read2Number(bytes, offset);
+            offset += 2;
+            return value;
+        }
+
+        int u4() {
+            int value = Utils.read4Number(bytes, offset);
+            offset += 4;
+            return value;
+        }
+
+        String utf8() {
+            int length = u2();
+            if (length == 0xFFFF) {
+                return null;
+            }
+            String value = Utils.readString(bytes, offset, length);
+            offset += length;
+            return value;
+        }
+
+        Member[] members() {
+            Member[] members = new Member[u2()];
+            for (int i = 0; i < members.length; i++) {
+                Member member = new Member();
+                member.accessFlags = u2();
+                member.name = utf8();
+                member.descriptor = utf8();
+                member.attributes = attributes();
+                members[i] = member;
+            }
+            return members;
+        }
+
+        Attribute[] attributes() {
+            Attribute[] attributes = new Attribute[u2()];
+            for (int i = 0; i < attributes.length; i++) {
+                Attribute attribute = new Attribute();
+                attribute.name = utf8();
+                attribute.length = u4();
+                if ("Code".equals(attribute.name)) {
+                    attribute.maxStack = u2();
+                    attribute.maxLocals = u2();
+                }
+                attributes[i] = attribute;
+            }
+            return attributes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClassSummary{" +
+                "version=" + majorVersion + "." + minorVersion +
+                ", constantPoolCount=" + constantPoolCount +
+                ", accessFlags=0x" + Integer.toHexString(accessFlags) +
+                ", thisClass='" + thisClass + '\'' +
+                ", superClass='" + superClass + '\'' +
+                ", interfaces=" + Arrays.toString(interfaces) +
+                ", fields=" + Arrays.toString(fields) +
+                ", methods=" + Arrays.toString(methods) +
+                ", attributes=" + Arrays.toString(attributes) +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package site.jiyang;
+
+
+/**
+ * 类文件的事件回调, 由 {@link ClassReader} 按类文件中的顺序调用:
+ * <pre>
+ * visitHeader
+ * visitConstant*
+ * visitClass
+ * visitFields (visitField (visitAttribute)*)*
+ * visitMethods (visitMethod (visitCode | visitAttribute)*)*
+ * visitClassAttributes visitAttribute*
+ * visitEnd
+ * </pre>
+ * 所有方法默认什么都不做, 只需要覆盖关心的事件. 没有处理的部分不会被解码
+ */
+abstract class ClassVisitor {
+
+    /**
+     * @param context 这个类的解析上下文, 在 visitConstant 之后可以通过它查找常量池
+     */
+    void visitHeader(ParseContext context, int magic, int minorVersion, int majorVersion) {
+    }
+
+    /**
+     * 常量池中的每一项, long/double 占用的第二个位置不会回调.
+     * 常量项在调用 {@link ConstantPool#get(int)} 时才会创建
+     */
+    void visitConstant(ConstantPool constantPool, int index) {
+    }
+
+    void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces) {
+    }
+
+    void visitFields(int count) {
+    }
+
+    /**
+     * @return 是否需要这个字段的属性
+     */
+    boolean visitField(int accessFlags, int nameIndex, int descriptorIndex) {
+        return false;
+    }
+
+    void visitMethods(int count) {
+    }
+
+    /**
+     * @return 是否需要这个方法的 Code 和其他属性
+     */
+    boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex) {
+        return false;
+    }
+
+    /**
+     * 方法的 Code 属性
+     */
+    void visitCode(CodeInfo code) {
+    }
+
+    /**
+     * 之后的 visitAttribute 都是类本身的属性
+     */
+    void visitClassAttributes(int count) {
+    }
+
+    /**
+     * 字段, 方法(Code 除外)和类本身的属性, 属性内容没有被解析
+     *
+     * @param offset 属性内容(info[])在类文件中的位置
+     * @param length 属性内容的长度
+     */
+    void visitAttribute(int nameIndex, int offset, int length) {
+    }
+
+    void visitEnd() {
+    }
+}
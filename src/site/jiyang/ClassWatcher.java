@@ -0,0 +1,234 @@
+package site.jiyang;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监视模式: 在一个或多个输出目录(例如 out/)及其子目录上注册 {@link WatchService},
+ * 只重新解析新建或者修改过的类文件, 解析结果保存在内存中的模型里, 以文件路径为 key.
+ * 编译器一次会写很多文件, 所以收到第一个事件后继续等到一段时间内没有新事件, 再把这一批文件在线程池中并行解析.
+ * 类文件读到堆中而不是映射, 因为编译器会原地覆盖文件, 而 {@link ClassFile} 中的常量是在访问时才解码的.
+ * 不使用共享的 {@link SymbolTable}: 符号表只增不减, 长时间监视时会留下所有被删除或修改前的类的字符串
+ */
+final class ClassWatcher implements Closeable {
+    private static final long QUIET_MILLIS = 50;
+
+    /**
+     * 一批更新的结果
+     */
+    static final class Batch {
+        final List<String> updated;
+        final List<String> removed;
+        final List<BatchParser.Failure> failures;
+        final long elapsedNanos;
+
+        Batch(List<String> updated, List<String> removed, List<BatchParser.Failure> failures, long elapsedNanos) {
+            this.updated = updated;
+            this.removed = removed;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Updated %d classes, removed %d, %d failures in %.1f ms",
+                    updated.size(), removed.size(), failures.size(), elapsedNanos / 1e6);
+        }
+    }
+
+    private final List<Path> roots;
+    private final int options;
+    private final ForkJoinPool pool;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final ConcurrentHashMap<String, ClassFile> classes = new ConcurrentHashMap<>();
+
+    /**
+     * @param options 每个类需要解析的部分, 见 {@link ParseOptions}
+     */
+    ClassWatcher(List<Path> roots, int options) throws IOException {
+        this.roots = roots;
+        this.options = options;
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        this.watchService = roots.get(0).getFileSystem().newWatchService();
+    }
+
+    /**
+     * 注册所有目录并解析已有的全部类文件
+     */
+    Batch start() throws IOException {
+        long begin = System.nanoTime();
+        Set<Path> changed = new LinkedHashSet<>();
+        for (Path root : roots) {
+            register(root, changed);
+        }
+        return update(changed, Collections.emptySet(), begin);
+    }
+
+    /**
+     * 当前所有类文件的解析结果, 随每一批更新变化
+     */
+    Map<String, ClassFile> classes() {
+        return Collections.unmodifiableMap(classes);
+    }
+
+    ClassFile get(String path) {
+        return classes.get(path);
+    }
+
+    /**
+     * 等待下一批变化并更新模型
+     *
+     * @return timeout 内没有变化时返回 null
+     */
+    Batch poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        WatchKey key = watchService.poll(timeout, unit);
+        if (key == null) {
+            return null;
+        }
+        long begin = System.nanoTime();
+        Set<Path> changed = new LinkedHashSet<>();
+        Set<Path> removed = new LinkedHashSet<>();
+        while (key != null) {
+            collect(key, changed, removed);
+            key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return update(changed, removed, begin);
+    }
+
+    /**
+     * 注册 directory 和所有子目录, 其中的类文件加入 changed
+     */
+    private void register(Path directory, Set<Path> changed) throws IOException {
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                if (Files.isDirectory(child)) {
+                    register(child, changed);
+                } else if (isClassFile(child)) {
+                    changed.add(child);
+                }
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed, Set<Path> removed) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 丢失了事件, 重新扫描这个目录
+                rescan(directory, changed, removed);
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                removed.add(path);
+                changed.remove(path);
+            } else if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path, changed);
+                }
+            } else if (isClassFile(path)) {
+                changed.add(path);
+                removed.remove(path);
+            }
+        }
+        if (!key.reset()) {
+            // 目录已经被删除
+            directories.remove(key);
+            removed.add(directory);
+        }
+    }
+
+    /**
+     * 丢失了 directory 中的事件: 先认为它下面的类文件都被删除了, 再重新注册整个子树, 仍然存在的文件重新解析
+     */
+    private void rescan(Path directory, Set<Path> changed, Set<Path> removed) throws IOException {
+        String prefix = directory.toString() + directory.getFileSystem().getSeparator();
+        for (String path : classes.keySet()) {
+            if (path.startsWith(prefix)) {
+                removed.add(directory.getFileSystem().getPath(path));
+            }
+        }
+        Set<Path> found = new LinkedHashSet<>();
+        register(directory, found);
+        removed.removeAll(found);
+        changed.addAll(found);
+    }
+
+    private static boolean isClassFile(Path path) {
+        return path.getFileName().toString().endsWith(".class");
+    }
+
+    /**
+     * 删除 removed 中的文件以及删除的目录下的文件的结果, 再并行解析 changed 中的文件
+     */
+    private Batch update(Set<Path> changed, Set<Path> removed, long begin) {
+        ConcurrentLinkedQueue<String> removedPaths = new ConcurrentLinkedQueue<>();
+        for (Path path : removed) {
+            String file = path.toString();
+            String directoryPrefix = file + path.getFileSystem().getSeparator();
+            for (String each : classes.keySet()) {
+                if ((each.equals(file) || each.startsWith(directoryPrefix)) && classes.remove(each) != null) {
+                    removedPaths.add(each);
+                }
+            }
+        }
+        List<Path> files = new ArrayList<>(changed);
+        ConcurrentLinkedQueue<String> updated = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<BatchParser.Failure> failures = new ConcurrentLinkedQueue<>();
+        pool.invoke(new BatchParser.EachTask(0, files.size(), i -> {
+            String path = files.get(i).toString();
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(files.get(i)));
+                ClassFile classFile = new BytecodeParser(options, null, null).read(bytes);
+                // 通过 classes() 和 get() 交给其他线程, 先解码所有常量, 发布之后只读
+                classFile.resolveAll();
+                classes.put(path, classFile);
+                updated.add(path);
+            } catch (NoSuchFileException e) {
+                // 事件之后文件又被删除了
+                if (classes.remove(path) != null) {
+                    removedPaths.add(path);
+                }
+            } catch (Exception | StackOverflowError e) {
+                // 文件可能还没有写完, 之后的修改事件会重新解析
+                failures.add(new BatchParser.Failure(path, e));
+            }
+        }));
+        return new Batch(new ArrayList<>(updated), new ArrayList<>(removedPaths), new ArrayList<>(failures),
+                System.nanoTime() - begin);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            watchService.close();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package site.jiyang;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 把一个类文件修改后重新写成字节
+ * 创建时只扫描一遍类文件, 记录常量池, 每个字段, 方法和属性在原始字节中的位置, 不解析内容.
+ * 写出时没有修改的部分直接引用原始 ByteBuffer 中的字节范围, 相邻的范围合并成一段, 只有修改过的
+ * 部分和随之变化的计数, 长度才重新编码. 没有任何修改时写出的就是原始字节本身.
+ * 写出的结果是一组 ByteBuffer, 写入 {@link GatheringByteChannel} 时一次调用写完, 不复制到中间缓冲区
+ */
+final class ClassWriter {
+    private static final byte[] REMOVED = new byte[0];
+    private static final int DEBUG_ATTRIBUTES = 1 << AttributeKind.LINE_NUMBER_TABLE
+            | 1 << AttributeKind.LOCAL_VARIABLE_TABLE | 1 << AttributeKind.LOCAL_VARIABLE_TYPE_TABLE;
+
+    private final ByteBuffer source;
+    private final ParseContext context;
+    /**
+     * access_flags 的位置, 也就是常量池的结束位置
+     */
+    private final int classStart;
+    /**
+     * 字段表的位置, 也就是接口表的结束位置
+     */
+    private final int fieldsStart;
+    private final Member[] fields;
+    private final Member[] methods;
+    private final Attributes attributes;
+
+    private int accessFlags = -1;
+    private final List<byte[]> newConstants = new ArrayList<>();
+    private int poolCount;
+
+    ClassWriter(ByteBuffer source) {
+        this.source = source;
+        this.context = new ParseContext(source, ParseOptions.ALL);
+        ConstantPool constantPool = new ConstantPool(context, 8, source);
+        constantPool.parse();
+        context.constantPool = constantPool;
+        poolCount = constantPool.poolCount;
+        classStart = constantPool.end();
+        fieldsStart = classStart + 8 + 2 * Utils.read2Number(source, classStart + 6);
+        int offset = fieldsStart;
+        fields = new Member[Utils.read2Number(source, offset)];
+        offset += 2;
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = new Member(offset);
+            offset = fields[i].attributes.end();
+        }
+        methods = new Member[Utils.read2Number(source, offset)];
+        offset += 2;
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = new Member(offset);
+            offset = methods[i].attributes.end();
+        }
+        attributes = new Attributes(offset);
+    }
+
+    int fieldCount() {
+        return fields.length;
+    }
+
+    int methodCount() {
+        return methods.length;
+    }
+
+    /**
+     * @return 名称和描述符都相同的字段的下标, 没有时返回 -1
+     */
+    int findField(String name, String descriptor) {
+        return find(fields, name, descriptor);
+    }
+
+    /**
+     * @return 名称和描述符都相同的方法的下标, 没有时返回 -1
+     */
+    int findMethod(String name, String descriptor) {
+        return find(methods, name, descriptor);
+    }
+
+    private int find(Member[] members, String name, String descriptor) {
+        for (int i = 0; i < members.length; i++) {
+            int start = members[i].start;
+            if (context.utf8Equals(Utils.read2Number(source, start + 2), name)
+                    && context.utf8Equals(Utils.read2Number(source, start + 4), descriptor)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 常量池中等于 value 的 Utf8 常量的索引, 没有时在常量池末尾追加一个
+     */
+    int addUtf8(String value) {
+        for (int i = 1; i < context.constantPool.poolCount; i++) {
+            if (context.utf8Equals(i, value)) {
+                return i;
+            }
+        }
+        int length = ModifiedUtf8.encodedLength(value);
+        if (length > 0xFFFF || poolCount >= 0xFFFF) {
+            throw new IllegalArgumentException("Can not add constant: " + value);
+        }
+        ByteBuffer constant = ByteBuffer.allocate(3 + length);
+        constant.put((byte) 1).putShort((short) length);
+        ModifiedUtf8.encode(value, constant);
+        newConstants.add(constant.array());
+        return poolCount++;
+    }
+
+    void setAccessFlags(int accessFlags) {
+        this.accessFlags = accessFlags;
+    }
+
+    void setFieldAccessFlags(int field, int accessFlags) {
+        fields[field].accessFlags = accessFlags;
+    }
+
+    void setMethodAccessFlags(int method, int accessFlags) {
+        methods[method].accessFlags = accessFlags;
+    }
+
+    void removeField(int field) {
+        fields[field].removed = true;
+    }
+
+    void removeMethod(int method) {
+        methods[method].removed = true;
+    }
+
+    /**
+     * 把方法名为 name 的属性的内容替换为 info, 不包括属性名和长度; 没有这个属性时添加
+     * 例如替换 Code 属性时 info 从 max_stack 开始
+     */
+    void replaceMethodAttribute(int method, String name, byte[] info) {
+        methods[method].attributes.replace(name, info);
+    }
+
+    void removeMethodAttribute(int method, String name) {
+        methods[method].attributes.remove(name);
+    }
+
+    void replaceFieldAttribute(int field, String name, byte[] info) {
+        fields[field].attributes.replace(name, info);
+    }
+
+    void removeFieldAttribute(int field, String name) {
+        fields[field].attributes.remove(name);
+    }
+
+    void replaceClassAttribute(String name, byte[] info) {
+        attributes.replace(name, info);
+    }
+
+    void removeClassAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    /**
+     * 去掉调试信息: 方法 Code 中的 LineNumberTable, LocalVariableTable, LocalVariableTypeTable 以及类的 SourceFile,
+     * 相当于 javac -g:none. Code 属性中只有这几个属性的位置和长度重新编码, 字节码和异常表仍然直接复制
+     */
+    ClassWriter stripDebug() {
+        for (Member method : methods) {
+            method.attributes.stripFromCode |= DEBUG_ATTRIBUTES;
+        }
+        attributes.remove("SourceFile");
+        return this;
+    }
+
+    /**
+     * @return 写出的内容, 没有修改的部分是原始 ByteBuffer 的视图, 和原始 ByteBuffer 共享内容
+     */
+    List<ByteBuffer> segments() {
+        Segments out = new Segments();
+        if (newConstants.isEmpty()) {
+            out.raw(0, classStart);
+        } else {
+            out.raw(0, 8);
+            out.u2(poolCount);
+            out.raw(10, classStart);
+            for (byte[] constant : newConstants) {
+                out.bytes(constant);
+            }
+        }
+        if (accessFlags < 0) {
+            out.raw(classStart, fieldsStart);
+        } else {
+            out.u2(accessFlags);
+            out.raw(classStart + 2, fieldsStart);
+        }
+        writeMembers(out, fields, fieldsStart);
+        writeMembers(out, methods, fields.length == 0 ? fieldsStart + 2 : fields[fields.length - 1].attributes.end());
+        attributes.write(out);
+        return out.finish();
+    }
+
+    private void writeMembers(Segments out, Member[] members, int countOffset) {
+        int count = 0;
+        for (Member member : members) {
+            if (!member.removed) {
+                count++;
+            }
+        }
+        if (count == members.length) {
+            out.raw(countOffset, countOffset + 2);
+        } else {
+            out.u2(count);
+        }
+        for (Member member : members) {
+            if (member.removed) {
+                continue;
+            }
+            if (member.accessFlags < 0) {
+                out.raw(member.start, member.start + 6);
+            } else {
+                out.u2(member.accessFlags);
+                out.raw(member.start + 2, member.start + 6);
+            }
+            member.attributes.write(out);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (ByteBuffer segment : segments()) {
+            size += segment.remaining();
+        }
+        return size;
+    }
+
+    ByteBuffer toByteBuffer() {
+        List<ByteBuffer> segments = segments();
+        if (segments.size() == 1) {
+            return segments.get(0);
+        }
+        int size = 0;
+        for (ByteBuffer segment : segments) {
+            size += segment.remaining();
+        }
+        ByteBuffer result = ByteBuffer.allocate(size);
+        for (ByteBuffer segment : segments) {
+            result.put(segment);
+        }
+        result.flip();
+        return result;
+    }
+
+    /**
+     * 写入 channel, channel 支持 gathering write 时所有片段一起写入
+     */
+    void writeTo(WritableByteChannel channel) throws IOException {
+        List<ByteBuffer> segments = segments();
+        if (channel instanceof GatheringByteChannel) {
+            ByteBuffer[] array = segments.toArray(new ByteBuffer[0]);
+            long remaining = 0;
+            for (ByteBuffer segment : array) {
+                remaining += segment.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= ((GatheringByteChannel) channel).write(array);
+            }
+            return;
+        }
+        for (ByteBuffer segment : segments) {
+            while (segment.hasRemaining()) {
+                channel.write(segment);
+            }
+        }
+    }
+
+    /**
+     * 写入 out, 堆中的片段直接写出底层数组中的范围, 不经过 {@link java.nio.channels.Channels#newChannel(OutputStream)}
+     * 的中间缓冲区
+     */
+    void writeTo(OutputStream out) throws IOException {
+        byte[] buff = null;
+        for (ByteBuffer segment : segments()) {
+            if (segment.hasArray()) {
+                out.write(segment.array(), segment.arrayOffset() + segment.position(), segment.remaining());
+                continue;
+            }
+            if (buff == null) {
+                buff = new byte[8192];
+            }
+            while (segment.hasRemaining()) {
+                int length = Math.min(buff.length, segment.remaining());
+                segment.get(buff, 0, length);
+                out.write(buff, 0, length);
+            }
+        }
+    }
+
+    /**
+     * 写出内容的 CRC-32, 在 zip 包中以 STORED 方式保存时需要在写入之前知道
+     */
+    long crc32() {
+        CRC32 crc = new CRC32();
+        for (ByteBuffer segment : segments()) {
+            crc.update(segment);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 字段或方法:
+     * <pre>
+     * u2 access_flags
+     * u2 name_index
+     * u2 descriptor_index
+     * u2 attributes_count
+     * attribute_info attributes[attributes_count]
+     * </pre>
+     */
+    private final class Member {
+        final int start;
+        final Attributes attributes;
+        int accessFlags = -1;
+        boolean removed;
+
+        Member(int start) {
+            this.start = start;
+            this.attributes = new Attributes(start + 6);
+        }
+    }
+
+    /**
+     * 属性表, 从 u2 attributes_count 开始
+     */
+    private final class Attributes {
+        /**
+         * 第 i 个属性从 starts[i] 开始, 最后一项是属性表的结束位置
+         */
+        final int[] starts;
+        /**
+         * 第 i 个属性修改后完整的字节, 包括属性名和长度; null 表示没有修改, {@link #REMOVED} 表示删除
+         */
+        byte[][] replaced;
+        final List<byte[]> added = new ArrayList<>(0);
+        /**
+         * 需要从 Code 属性中去掉的属性种类, 第 kind 位表示 {@link AttributeKind} 中的一种
+         */
+        int stripFromCode;
+
+        Attributes(int countOffset) {
+            int count = Utils.read2Number(source, countOffset);
+            starts = new int[count + 1];
+            int offset = countOffset + 2;
+            for (int i = 0; i < count; i++) {
+                starts[i] = offset;
+                offset += 6 + Utils.read4Number(source, offset + 2);
+            }
+            starts[count] = offset;
+        }
+
+        int end() {
+            return starts[starts.length - 1];
+        }
+
+        private int countOffset() {
+            return starts[0] - 2;
+        }
+
+        private int find(String name) {
+            for (int i = 0; i < starts.length - 1; i++) {
+                if (context.utf8Equals(Utils.read2Number(source, starts[i]), name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void replace(String name, byte[] info) {
+            int index = find(name);
+            int nameIndex = index >= 0 ? Utils.read2Number(source, starts[index]) : addUtf8(name);
+            byte[] attribute = ByteBuffer.allocate(6 + info.length)
+                    .putShort((short) nameIndex).putInt(info.length).put(info).array();
+            if (index >= 0) {
+                set(index, attribute);
+            } else {
+                added.add(attribute);
+            }
+        }
+
+        void remove(String name) {
+            int index = find(name);
+            if (index >= 0) {
+                set(index, REMOVED);
+            }
+        }
+
+        private void set(int index, byte[] attribute) {
+            if (replaced == null) {
+                replaced = new byte[starts.length - 1][];
+            }
+            replaced[index] = attribute;
+        }
+
+        void write(Segments out) {
+            int count = starts.length - 1;
+            int written = count + added.size();
+            if (replaced != null) {
+                for (byte[] attribute : replaced) {
+                    if (attribute == REMOVED) {
+                        written--;
+                    }
+                }
+            }
+            if (written == count) {
+                out.raw(countOffset(), starts[0]);
+            } else {
+                out.u2(written);
+            }
+            for (int i = 0; i < count; i++) {
+                byte[] attribute = replaced == null ? null : replaced[i];
+                if (attribute == REMOVED) {
+                    continue;
+                }
+                if (attribute != null) {
+                    out.bytes(attribute);
+                } else if (stripFromCode != 0
+                        && context.constantPool.attributeKind(Utils.read2Number(source, starts[i])) == AttributeKind.CODE) {
+                    writeCode(out, starts[i], starts[i + 1]);
+                } else {
+                    out.raw(starts[i], starts[i + 1]);
+                }
+            }
+            for (byte[] attribute : added) {
+                out.bytes(attribute);
+            }
+        }
+
+        /**
+         * Code 属性, 去掉 stripFromCode 中的属性, 其余部分原样复制:
+         * <pre>
+         * u2 attribute_name_index
+         * u4 attribute_length
+         * u2 max_stack
+         * u2 max_locals
+         * u4 code_length
+         * u1 code[code_length]
+         * u2 exception_table_length
+         * exception_table[exception_table_length] 每项 8 字节
+         * u2 attributes_count
+         * attribute_info attributes[attributes_count]
+         * </pre>
+         */
+        private void writeCode(Segments out, int start, int end) {
+            int info = start + 6;
+            int exceptionTable = info + 8 + Utils.read4Number(source, info + 4);
+            int countOffset = exceptionTable + 2 + 8 * Utils.read2Number(source, exceptionTable);
+            int count = Utils.read2Number(source, countOffset);
+            int[] kept = new int[count];
+            int keptCount = 0;
+            int removedBytes = 0;
+            int offset = countOffset + 2;
+            for (int i = 0; i < count; i++) {
+                int size = 6 + Utils.read4Number(source, offset + 2);
+                int kind = context.constantPool.attributeKind(Utils.read2Number(source, offset));
+                if (kind != AttributeKind.UNKNOWN && (stripFromCode & 1 << kind) != 0) {
+                    removedBytes += size;
+                } else {
+                    kept[keptCount++] = offset;
+                }
+                offset += size;
+            }
+            if (keptCount == count) {
+                out.raw(start, end);
+                return;
+            }
+            out.raw(start, start + 2);
+            out.u4(end - info - removedBytes);
+            out.raw(info, countOffset);
+            out.u2(keptCount);
+            for (int i = 0; i < keptCount; i++) {
+                out.raw(kept[i], kept[i] + 6 + Utils.read4Number(source, kept[i] + 2));
+            }
+        }
+    }
+
+    /**
+     * 按顺序收集写出的片段, 原始字节中相邻的范围合并成一个视图
+     */
+    private final class Segments {
+        private final List<ByteBuffer> list = new ArrayList<>();
+        private int from = -1;
+        private int to;
+
+        void raw(int start, int end) {
+            if (from >= 0 && to == start) {
+                to = end;
+                return;
+            }
+            flush();
+            from = start;
+            to = end;
+        }
+
+        void bytes(byte[] value) {
+            flush();
+            list.add(ByteBuffer.wrap(value));
+        }
+
+        void u2(int value) {
+            bytes(new byte[]{(byte) (value >> 8), (byte) value});
+        }
+
+        void u4(int value) {
+            bytes(ByteBuffer.allocate(4).putInt(value).array());
+        }
+
+        private void flush() {
+            if (from < 0) {
+                return;
+            }
+            ByteBuffer view = source.duplicate();
+            view.limit(to).position(from);
+            list.add(view.slice());
+            from = -1;
+        }
+
+        List<ByteBuffer> finish() {
+            flush();
+            return list;
+        }
+    }
+}
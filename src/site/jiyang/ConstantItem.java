@@ -1,5 +1,7 @@
 package site.jiyang;
 
+import java.nio.ByteBuffer;
+
 /**
  * 常量项
  * 每个常量项都有 u1 的 tag, 表示其类型
@@ -23,6 +25,45 @@ abstract class ConstantItem implements Parsable {
         return 1/*u1的tag*/ + contentSize();
     }
 
+    /**
+     * 不创建常量项对象, 直接根据 tag 计算 offset 处常量项占用的字节数, tag 未知时返回 -1
+     */
+    static int sizeOf(int tag, ByteBuffer bytes, int offset) {
+        switch (tag) {
+            case 1:
+                return 1 + 2 + Utils.read2Number(bytes, offset + 1);
+            case 7:
+            case 8:
+            case 16:
+            case 19:
+            case 20:
+                return 1 + 2;
+            case 15:
+                return 1 + 1 + 2;
+            case 3:
+            case 4:
+            case 9:
+            case 10:
+            case 11:
+            case 12:
+            case 17:
+            case 18:
+                return 1 + 4;
+            case 5:
+            case 6:
+                return 1 + 8;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * long 和 double 在常量池中占两个索引位置
+     */
+    static boolean isWide(int tag) {
+        return tag == 5 || tag == 6;
+    }
+
     static ConstantItem getConstantItemTags(int tag) {
         switch (tag) {
             case 1:
@@ -51,8 +92,14 @@ abstract class ConstantItem implements Parsable {
                 return new Method_Handle();
             case 16:
                 return new Method_Type();
+            case 17:
+                return new Dynamic();
             case 18:
                 return new Invoke_Dynamic();
+            case 19:
+                return new MODULE();
+            case 20:
+                return new PACKAGE();
             default:
                 return null;
         }
@@ -62,7 +109,10 @@ abstract class ConstantItem implements Parsable {
 
 class UTF8 extends ConstantItem {
     private int length;
-    public String value;
+    private ByteBuffer bytes;
+    private int offset;
+    private SymbolTable symbols;
+    private String value;
 
     UTF8() {
         super(1);
@@ -74,22 +124,46 @@ class UTF8 extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         length = Utils.read2Number(bytes, start + 1);
-        value = new String(bytes, start + 3, length);
+        this.bytes = bytes;
+        this.offset = start + 3;
+        this.symbols = context == null ? null : context.symbols;
+    }
+
+    /**
+     * 第一次访问时才解码字符串, 之后直接返回解码的结果. 有符号表时从符号表中取得共享的字符串
+     */
+    String value() {
+        if (value == null) {
+            value = symbols == null ? Utils.readString(bytes, offset, length) : symbols.intern(bytes, offset, length);
+        }
+        return value;
+    }
+
+    /**
+     * 不解码, 直接按字节比较
+     */
+    boolean is(String value) {
+        return ModifiedUtf8.equals(bytes, offset, length, value);
+    }
+
+    boolean startsWith(String prefix) {
+        return ModifiedUtf8.startsWith(bytes, offset, length, prefix);
     }
 
     @Override
     public String toString() {
         return "Utf8{" +
                 "attributeLength=" + length +
-                ", value='" + value + '\'' +
+                ", value='" + value() + '\'' +
                 '}';
     }
 }
 
 class INTEGER extends ConstantItem {
-    int value;
+    private ByteBuffer bytes;
+    private int offset;
 
     protected INTEGER() {
         super(3);
@@ -101,20 +175,29 @@ class INTEGER extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
-        value = Utils.read4Number(bytes, start + 1);
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
+        this.bytes = bytes;
+        this.offset = start + 1;
+    }
+
+    /**
+     * 访问时才从类文件中解码, 读取定长的数值不需要缓存
+     */
+    int value() {
+        return Utils.read4Number(bytes, offset);
     }
 
     @Override
     public String toString() {
         return "Integer{" +
-                "value=" + value +
+                "value=" + value() +
                 '}';
     }
 }
 
 class FLOAT extends ConstantItem {
-    float value;
+    private ByteBuffer bytes;
+    private int offset;
 
     FLOAT() {
         super(4);
@@ -126,20 +209,26 @@ class FLOAT extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
-        value = Utils.read4Number(bytes, start + 1);
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
+        this.bytes = bytes;
+        this.offset = start + 1;
+    }
+
+    float value() {
+        return Float.intBitsToFloat(Utils.read4Number(bytes, offset));
     }
 
     @Override
     public String toString() {
         return "Float{" +
-                "value=" + value +
+                "value=" + value() +
                 '}';
     }
 }
 
 class LONG extends ConstantItem {
-    long value;
+    private ByteBuffer bytes;
+    private int offset;
 
     LONG() {
         super(5);
@@ -151,14 +240,19 @@ class LONG extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
-        value = Utils.read8Number(bytes, start + 1);
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
+        this.bytes = bytes;
+        this.offset = start + 1;
+    }
+
+    long value() {
+        return Utils.read8Number(bytes, offset);
     }
 
     @Override
     public String toString() {
         return "Long{" +
-                "value=" + value +
+                "value=" + value() +
                 '}';
     }
 }
@@ -169,7 +263,8 @@ class DOUBLE extends ConstantItem {
         super(6);
     }
 
-    double value;
+    private ByteBuffer bytes;
+    private int offset;
 
     @Override
     protected int contentSize() {
@@ -177,14 +272,19 @@ class DOUBLE extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
-        value = Utils.read8Number(bytes, start + 1);
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
+        this.bytes = bytes;
+        this.offset = start + 1;
+    }
+
+    double value() {
+        return Double.longBitsToDouble(Utils.read8Number(bytes, offset));
     }
 
     @Override
     public String toString() {
         return "Double{" +
-                "value=" + value +
+                "value=" + value() +
                 '}';
     }
 }
@@ -203,7 +303,7 @@ class CLASS extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         index = Utils.read2Number(bytes, start + 1);
     }
 
@@ -228,7 +328,7 @@ class STRING extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         index = Utils.read2Number(bytes, start + 1);
     }
 
@@ -254,7 +354,7 @@ class FIELD_REF extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         classInfoIndex = Utils.read2Number(bytes, start + 1);
         nameAndTypeIndex = Utils.read2Number(bytes, start + 3);
     }
@@ -281,7 +381,7 @@ class METHOD_REF extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         classInfoIndex = Utils.read2Number(bytes, start + 1);
         nameAndTypeIndex = Utils.read2Number(bytes, start + 3);
     }
@@ -308,7 +408,7 @@ class Interface_Method_Ref extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         classInfoIndex = Utils.read2Number(bytes, start + 1);
         nameAndTypeIndex = Utils.read2Number(bytes, start + 3);
     }
@@ -335,7 +435,7 @@ class NAME_AND_TYPE extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         nameIndex = Utils.read2Number(bytes, start + 1);
         descriptorIndex = Utils.read2Number(bytes, start + 3);
     }
@@ -364,7 +464,7 @@ class Method_Handle extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         referenceKind = Utils.readUnsignedByte(bytes, start + 1);
         referenceIndex = Utils.read2Number(bytes, start + 2);
     }
@@ -391,7 +491,7 @@ class Method_Type extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         descriptorIndex = Utils.read2Number(bytes, start + 1);
     }
 
@@ -416,7 +516,7 @@ class Invoke_Dynamic extends ConstantItem {
     }
 
     @Override
-    public void parse(byte[] bytes, int start) {
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
         bootstrapAttrIndex = Utils.read2Number(bytes, start + 1);
         nameAndTypeIndex = Utils.read2Number(bytes, start + 3);
     }
@@ -429,3 +529,80 @@ class Invoke_Dynamic extends ConstantItem {
                 '}';
     }
 }
+
+class Dynamic extends ConstantItem {
+    int bootstrapAttrIndex, nameAndTypeIndex;
+
+    Dynamic() {
+        super(17);
+    }
+
+    @Override
+    protected int contentSize() {
+        return 4;
+    }
+
+    @Override
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
+        bootstrapAttrIndex = Utils.read2Number(bytes, start + 1);
+        nameAndTypeIndex = Utils.read2Number(bytes, start + 3);
+    }
+
+    @Override
+    public String toString() {
+        return "Dynamic{" +
+                "bootstrapAttrIndex=" + bootstrapAttrIndex +
+                ", nameAndTypeIndex=" + nameAndTypeIndex +
+                '}';
+    }
+}
+
+class MODULE extends ConstantItem {
+    int nameIndex;
+
+    MODULE() {
+        super(19);
+    }
+
+    @Override
+    protected int contentSize() {
+        return 2;
+    }
+
+    @Override
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
+        nameIndex = Utils.read2Number(bytes, start + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "Module{" +
+                "nameIndex=" + nameIndex +
+                '}';
+    }
+}
+
+class PACKAGE extends ConstantItem {
+    int nameIndex;
+
+    PACKAGE() {
+        super(20);
+    }
+
+    @Override
+    protected int contentSize() {
+        return 2;
+    }
+
+    @Override
+    public void parse(ParseContext context, ByteBuffer bytes, int start) {
+        nameIndex = Utils.read2Number(bytes, start + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "Package{" +
+                "nameIndex=" + nameIndex +
+                '}';
+    }
+}
@@ -1,20 +1,29 @@
 package site.jiyang;
 
-import java.util.HashMap;
 
+import java.nio.ByteBuffer;
+
+/**
+ * 常量池
+ * 解析时只记录每一项的 tag 和在类文件中的偏移, 按常量池索引直接存放在数组中,
+ * 常量项对象在第一次访问时才创建并缓存, 字符串和数值也在访问时才解码.
+ * 非 lazy 模式下解析完成时就创建所有常量项并解码所有字符串
+ */
 class ConstantPool extends Section {
 
     int poolCount; //u2
     private int constantsSize;
 
-    private HashMap<Integer, ConstantItem> mConstantItems = new HashMap<>();
-
-    public HashMap<Integer, ConstantItem> getConstantItems() {
-        return mConstantItems;
-    }
+    /**
+     * 下标为常量池索引, 0 号以及 long/double 占用的第二个位置 tag 为 0
+     */
+    private int[] tags;
+    private int[] offsets;
+    private ConstantItem[] items;
+    private byte[] attributeKinds;
 
-    public ConstantPool(int start, byte[] bytes) {
-        super(start, bytes);
+    public ConstantPool(ParseContext context, int start, ByteBuffer bytes) {
+        super(context, start, bytes);
     }
 
     @Override
@@ -25,28 +34,97 @@ class ConstantPool extends Section {
     @Override
     public void parse() {
         poolCount = Utils.read2Number(bytes, start);
+        tags = new int[poolCount];
+        offsets = new int[poolCount];
+        items = new ConstantItem[poolCount];
         // 遍历常量表的每一项常量
-        int offset = 2;
+        int offset = start + 2;
         for (int i = 1; i <= poolCount - 1; i++) {
-            int tag = Utils.readUnsignedByte(bytes, start + offset);
-            // 找到匹配的常量
-            ConstantItem item = ConstantItem.getConstantItemTags(tag);
-            if (item == null) {
+            int tag = Utils.readUnsignedByte(bytes, offset);
+            int itemSize = ConstantItem.sizeOf(tag, bytes, offset);
+            if (itemSize < 0) {
                 System.err.println("Not found ConstantItem for " + tag);
                 return;
             }
-            item.parse(bytes, start + offset);
-            offset += item.size();
-            constantsSize += item.size();
-            mConstantItems.put(i, item);
+            tags[i] = tag;
+            offsets[i] = offset;
+            offset += itemSize;
+            constantsSize += itemSize;
+            if (ConstantItem.isWide(tag)) {
+                // long 和 double 占用两个索引位置
+                i++;
+            }
+        }
+        if (context.has(ParseOptions.EAGER_CONSTANTS)) {
+            resolveAll();
+        }
+    }
+
+    /**
+     * 创建所有常量项并解码所有字符串
+     */
+    void resolveAll() {
+        for (int i = 1; i <= poolCount - 1; i++) {
+            ConstantItem item = get(i);
+            if (item instanceof UTF8) {
+                ((UTF8) item).value();
+            }
+        }
+    }
+
+    int tag(int index) {
+        return tags[index];
+    }
+
+    int offset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * index 处的 Utf8 常量作为属性名时的种类, 见 {@link AttributeKind}
+     * 每个常量只在第一次查询时匹配, 结果加 1 后记录在 attributeKinds 中(0 表示还没有匹配过)
+     */
+    int attributeKind(int index) {
+        if (index <= 0 || index >= poolCount || tags[index] != 1) {
+            return AttributeKind.UNKNOWN;
+        }
+        byte[] kinds = attributeKinds;
+        if (kinds == null) {
+            kinds = attributeKinds = new byte[poolCount];
         }
+        int kind = kinds[index];
+        if (kind == 0) {
+            int offset = offsets[index];
+            kind = AttributeKind.of(bytes, offset + 3, Utils.read2Number(bytes, offset + 1)) + 1;
+            kinds[index] = (byte) kind;
+        }
+        return kind - 1;
+    }
+
+    /**
+     * index 处的常量项, 第一次访问时创建, index 无效时返回 null
+     */
+    ConstantItem get(int index) {
+        if (index <= 0 || index >= poolCount || tags[index] == 0) {
+            return null;
+        }
+        ConstantItem item = items[index];
+        if (item == null) {
+            item = ConstantItem.getConstantItemTags(tags[index]);
+            item.parse(context, bytes, offsets[index]);
+            items[index] = item;
+        }
+        return item;
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         for (int i = 1; i <= poolCount - 1; i++) {
-            sb.append("  #").append(i).append(" ").append(mConstantItems.get(i)).append("\n");
+            if (tags[i] == 0) {
+                continue;
+            }
+            sb.append("  #").append(i).append(" ").append(get(i)).append("\n");
         }
         return "ConstantPool{" +
                 "poolCount=" + poolCount +
@@ -1,7 +1,9 @@
 package site.jiyang;
 
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * <pre>
@@ -28,16 +30,27 @@ class FieldOrMethod extends Section {
         int attributesCount; //u2
 
         private ArrayList<AttributeInfo> mAttributeInfos = new ArrayList<>();
+        private int attributesSize;
+        private ParseContext context;
 
         public int size() {
-            int infoSize = 0;
-            for (AttributeInfo info : mAttributeInfos) {
-                infoSize += info.size();
+            return 8 + attributesSize;
+        }
+
+        /**
+         * 方法的 Code 属性, 没有 Code 属性或者没有解析时返回 null
+         */
+        CodeInfo code() {
+            for (AttributeInfo attributeInfo : mAttributeInfos) {
+                if (attributeInfo.info() instanceof CodeInfo) {
+                    return (CodeInfo) attributeInfo.info();
+                }
             }
-            return 8 + infoSize;
+            return null;
         }
 
-        public void parse(byte[] bytes, int offset) {
+        public void parse(ParseContext context, ByteBuffer bytes, int offset) {
+            this.context = context;
             accessFlag = Utils.read2Number(bytes, offset);
             offset += 2;
             nameIndex = Utils.read2Number(bytes, offset);
@@ -46,11 +59,19 @@ class FieldOrMethod extends Section {
             offset += 2;
             attributesCount = Utils.read2Number(bytes, offset);
             offset += 2;
+            boolean decode = context.has(ParseOptions.ATTRIBUTES | ParseOptions.CODE);
             for (int i = 0; i < attributesCount; i++) {
-                AttributeInfo attributeInfo = new AttributeInfo();
-                attributeInfo.parse(bytes, offset);
-                mAttributeInfos.add(attributeInfo);
-                offset += attributeInfo.size();
+                int attributeSize;
+                if (decode) {
+                    AttributeInfo attributeInfo = new AttributeInfo();
+                    attributeInfo.parse(context, bytes, offset);
+                    mAttributeInfos.add(attributeInfo);
+                    attributeSize = attributeInfo.size();
+                } else {
+                    attributeSize = 2 + 4 + Utils.read4Number(bytes, offset + 2);
+                }
+                offset += attributeSize;
+                attributesSize += attributeSize;
             }
         }
 
@@ -72,7 +93,7 @@ class FieldOrMethod extends Section {
         static final int ABSTRACT = 0x0400;
         static final int STRICTFP = 0x0500;
 
-        private static String accessFlagReadable(int access) {
+        static String accessFlagReadable(int access) {
             StringBuilder sb = new StringBuilder();
             sb.append("[");
             if ((access & PUBLIC) == PUBLIC) sb.append("Public,");
@@ -104,7 +125,7 @@ class FieldOrMethod extends Section {
             return "Entity{" +
                     "accessFlag=" + accessFlagReadable(accessFlag) +
                     ", nameIndex=" + nameIndex +
-                    ", name=" + ((UTF8) BytecodeParser.constantItemHashMap.get(nameIndex)).value +
+                    ", name=" + context.utf8(nameIndex) +
                     ", descriptorIndex=" + descriptorIndex +
                     ", attributesCount=" + attributesCount +
                     ", mAttributeInfos=\n" + sb.toString() +
@@ -115,8 +136,8 @@ class FieldOrMethod extends Section {
     private final String name;
     private final ArrayList<Entity> mEntities = new ArrayList<>();
 
-    public FieldOrMethod(String name, int start, byte[] bytes) {
-        super(start, bytes);
+    public FieldOrMethod(String name, ParseContext context, int start, ByteBuffer bytes) {
+        super(context, start, bytes);
         this.name = name;
     }
 
@@ -125,6 +146,28 @@ class FieldOrMethod extends Section {
         return infoSize + 2;
     }
 
+    List<Entity> entities() {
+        return mEntities;
+    }
+
+    /**
+     * 不创建任何对象, 只根据每个属性的 attribute_length 跳过整个字段表或方法表
+     *
+     * @return 字段表或方法表之后的位置
+     */
+    static int skip(ByteBuffer bytes, int offset) {
+        int count = Utils.read2Number(bytes, offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            int attributesCount = Utils.read2Number(bytes, offset + 6);
+            offset += 8;
+            for (int j = 0; j < attributesCount; j++) {
+                offset += 2 + 4 + Utils.read4Number(bytes, offset + 2);
+            }
+        }
+        return offset;
+    }
+
     @Override
     public void parse() {
         int offset = start;
@@ -132,7 +175,7 @@ class FieldOrMethod extends Section {
         offset += 2;
         for (int i = 0; i < count; i++) {
             Entity entity = new Entity();
-            entity.parse(bytes, offset);
+            entity.parse(context, bytes, offset);
             mEntities.add(entity);
             infoSize += entity.size();
             offset += entity.size();
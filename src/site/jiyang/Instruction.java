@@ -3,6 +3,7 @@ package site.jiyang;
 
 // region Instruction
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -13,75 +14,260 @@ import java.util.Arrays;
  * ...      //每个指令的操作数个数是固定的
  * 详见: https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-6.html#jvms-6.4
  * </pre>
+ * 指令不再一个个创建对象, 而是按操作码查表: 每个操作码对应助记符和操作数格式, 由格式得到指令长度和操作数.
+ * 只有 tableswitch, lookupswitch 和 wide 的长度需要读取指令本身才能确定
  */
-abstract class Instruction implements Parsable {
-    abstract public String name();
+final class Instruction {
 
-    abstract public int[] values();
+    // region 操作数格式
+    static final byte NONE = 0;             // 没有操作数
+    static final byte S1 = 1;               // s1 立即数: bipush
+    static final byte S2 = 2;               // s2 立即数: sipush
+    static final byte LOCAL = 3;            // u1 局部变量索引: iload, ret ...
+    static final byte CP1 = 4;              // u1 常量池索引: ldc
+    static final byte CP2 = 5;              // u2 常量池索引: ldc_w, getfield, new ...
+    static final byte BRANCH2 = 6;          // s2 跳转偏移: ifeq, goto ...
+    static final byte BRANCH4 = 7;          // s4 跳转偏移: goto_w, jsr_w
+    static final byte IINC = 8;             // u1 局部变量索引, s1 增量
+    static final byte NEWARRAY = 9;         // u1 数组元素类型
+    static final byte INVOKEINTERFACE = 10; // u2 常量池索引, u1 参数个数, u1 0
+    static final byte INVOKEDYNAMIC = 11;   // u2 常量池索引, u1 0, u1 0
+    static final byte MULTIANEWARRAY = 12;  // u2 常量池索引, u1 维数
+    static final byte TABLESWITCH = 13;
+    static final byte LOOKUPSWITCH = 14;
+    static final byte WIDE = 15;
+    // endregion
 
-    public int size() {
-        return 1 /* u1 opcode*/ + values().length /* 每个操作数类型为 u1 */;
-    }
+    /**
+     * 每种格式的指令长度(包括 u1 的操作码), 0 表示长度可变
+     */
+    private static final int[] FORMAT_LENGTHS = {1, 2, 3, 2, 2, 3, 3, 5, 3, 2, 5, 5, 4, 0, 0, 0};
+
+    static final int IINC_OPCODE = 132;
+    static final int TABLESWITCH_OPCODE = 170;
+    static final int LOOKUPSWITCH_OPCODE = 171;
+    static final int WIDE_OPCODE = 196;
+
+    private static final String[] NAMES = {
+            "nop", "aconst_null", "iconst_m1", "iconst_0", "iconst_1", "iconst_2", "iconst_3", "iconst_4",
+            "iconst_5", "lconst_0", "lconst_1", "fconst_0", "fconst_1", "fconst_2", "dconst_0", "dconst_1",
+            "bipush", "sipush", "ldc", "ldc_w", "ldc2_w", "iload", "lload", "fload",
+            "dload", "aload", "iload_0", "iload_1", "iload_2", "iload_3", "lload_0", "lload_1",
+            "lload_2", "lload_3", "fload_0", "fload_1", "fload_2", "fload_3", "dload_0", "dload_1",
+            "dload_2", "dload_3", "aload_0", "aload_1", "aload_2", "aload_3", "iaload", "laload",
+            "faload", "daload", "aaload", "baload", "caload", "saload", "istore", "lstore",
+            "fstore", "dstore", "astore", "istore_0", "istore_1", "istore_2", "istore_3", "lstore_0",
+            "lstore_1", "lstore_2", "lstore_3", "fstore_0", "fstore_1", "fstore_2", "fstore_3", "dstore_0",
+            "dstore_1", "dstore_2", "dstore_3", "astore_0", "astore_1", "astore_2", "astore_3", "iastore",
+            "lastore", "fastore", "dastore", "aastore", "bastore", "castore", "sastore", "pop",
+            "pop2", "dup", "dup_x1", "dup_x2", "dup2", "dup2_x1", "dup2_x2", "swap",
+            "iadd", "ladd", "fadd", "dadd", "isub", "lsub", "fsub", "dsub",
+            "imul", "lmul", "fmul", "dmul", "idiv", "ldiv", "fdiv", "ddiv",
+            "irem", "lrem", "frem", "drem", "ineg", "lneg", "fneg", "dneg",
+            "ishl", "lshl", "ishr", "lshr", "iushr", "lushr", "iand", "land",
+            "ior", "lor", "ixor", "lxor", "iinc", "i2l", "i2f", "i2d",
+            "l2i", "l2f", "l2d", "f2i", "f2l", "f2d", "d2i", "d2l",
+            "d2f", "i2b", "i2c", "i2s", "lcmp", "fcmpl", "fcmpg", "dcmpl",
+            "dcmpg", "ifeq", "ifne", "iflt", "ifge", "ifgt", "ifle", "if_icmpeq",
+            "if_icmpne", "if_icmplt", "if_icmpge", "if_icmpgt", "if_icmple", "if_acmpeq", "if_acmpne", "goto",
+            "jsr", "ret", "tableswitch", "lookupswitch", "ireturn", "lreturn", "freturn", "dreturn",
+            "areturn", "return", "getstatic", "putstatic", "getfield", "putfield", "invokevirtual", "invokespecial",
+            "invokestatic", "invokeinterface", "invokedynamic", "new", "newarray", "anewarray", "arraylength", "athrow",
+            "checkcast", "instanceof", "monitorenter", "monitorexit", "wide", "multianewarray", "ifnull", "ifnonnull",
+            "goto_w", "jsr_w"
+    };
+
+    /**
+     * 下标为操作码, 值为操作数格式, -1 表示未定义的操作码
+     */
+    private static final byte[] FORMATS = new byte[256];
 
-    @Override
-    public String toString() {
-        return String.format("Instruction{%s %s}", name(), Arrays.toString(values()));
+    static {
+        Arrays.fill(FORMATS, (byte) -1);
+        Arrays.fill(FORMATS, 0, NAMES.length, NONE);
+        FORMATS[16] = S1;
+        FORMATS[17] = S2;
+        FORMATS[18] = CP1;
+        FORMATS[19] = CP2;
+        FORMATS[20] = CP2;
+        for (int opcode = 21; opcode <= 25; opcode++) {
+            FORMATS[opcode] = LOCAL; // xload
+        }
+        for (int opcode = 54; opcode <= 58; opcode++) {
+            FORMATS[opcode] = LOCAL; // xstore
+        }
+        FORMATS[IINC_OPCODE] = IINC;
+        for (int opcode = 153; opcode <= 168; opcode++) {
+            FORMATS[opcode] = BRANCH2; // ifeq ~ jsr
+        }
+        FORMATS[169] = LOCAL; // ret
+        FORMATS[TABLESWITCH_OPCODE] = TABLESWITCH;
+        FORMATS[LOOKUPSWITCH_OPCODE] = LOOKUPSWITCH;
+        for (int opcode = 178; opcode <= 184; opcode++) {
+            FORMATS[opcode] = CP2; // getstatic ~ invokestatic
+        }
+        FORMATS[185] = INVOKEINTERFACE;
+        FORMATS[186] = INVOKEDYNAMIC;
+        FORMATS[187] = CP2; // new
+        FORMATS[188] = NEWARRAY;
+        FORMATS[189] = CP2; // anewarray
+        FORMATS[192] = CP2; // checkcast
+        FORMATS[193] = CP2; // instanceof
+        FORMATS[WIDE_OPCODE] = WIDE;
+        FORMATS[197] = MULTIANEWARRAY;
+        FORMATS[198] = BRANCH2; // ifnull
+        FORMATS[199] = BRANCH2; // ifnonnull
+        FORMATS[200] = BRANCH4;
+        FORMATS[201] = BRANCH4;
     }
 
-    static Instruction findInstructionByOpcode(int opcode) {
-        switch (opcode) {
-            case 18:
-                return new LDC();
-            case 50:
-            case 83:
-            case 1:
-            case 25:
-            case 42:
-            case 43:
-            case 44:
-            case 45:
-            case 189:
-            case 176:
-            case 190:
-            case 58:
-            case 75:
-            case 76:
-            case 77:
-            case 78:
-            case 191:
-            case 51:
-            case 84:
-                // 还有很多指令 ...
-            default:
-                //TODO 实现其他字节码指令
-                return null;
+    /**
+     * 由常量池中的描述符或者操作数决定栈变化的指令: 字段访问, 方法调用和 multianewarray
+     */
+    static final int VARIABLE_STACK_EFFECT = Byte.MIN_VALUE;
+
+    /**
+     * 下标为操作码, 值为执行后操作数栈深度的变化(以 slot 计, long 和 double 占 2 个)
+     */
+    private static final byte[] STACK_EFFECTS = new byte[256];
+
+    static {
+        byte[] e = STACK_EFFECTS;
+        e[1] = 1; // aconst_null
+        Arrays.fill(e, 2, 9, (byte) 1); // iconst_m1 ~ iconst_5
+        e[9] = e[10] = 2; // lconst
+        e[11] = e[12] = e[13] = 1; // fconst
+        e[14] = e[15] = 2; // dconst
+        e[16] = e[17] = e[18] = e[19] = 1; // bipush, sipush, ldc, ldc_w
+        e[20] = 2; // ldc2_w
+        e[21] = 1; e[22] = 2; e[23] = 1; e[24] = 2; e[25] = 1; // iload, lload, fload, dload, aload
+        Arrays.fill(e, 26, 30, (byte) 1); // iload_n
+        Arrays.fill(e, 30, 34, (byte) 2); // lload_n
+        Arrays.fill(e, 34, 38, (byte) 1); // fload_n
+        Arrays.fill(e, 38, 42, (byte) 2); // dload_n
+        Arrays.fill(e, 42, 46, (byte) 1); // aload_n
+        Arrays.fill(e, 46, 54, (byte) -1); // xaload
+        e[47] = e[49] = 0; // laload, daload
+        e[54] = -1; e[55] = -2; e[56] = -1; e[57] = -2; e[58] = -1; // istore, lstore, fstore, dstore, astore
+        Arrays.fill(e, 59, 63, (byte) -1); // istore_n
+        Arrays.fill(e, 63, 67, (byte) -2); // lstore_n
+        Arrays.fill(e, 67, 71, (byte) -1); // fstore_n
+        Arrays.fill(e, 71, 75, (byte) -2); // dstore_n
+        Arrays.fill(e, 75, 79, (byte) -1); // astore_n
+        Arrays.fill(e, 79, 87, (byte) -3); // xastore
+        e[80] = e[82] = -4; // lastore, dastore
+        e[87] = -1; e[88] = -2; // pop, pop2
+        e[89] = e[90] = e[91] = 1; // dup, dup_x1, dup_x2
+        e[92] = e[93] = e[94] = 2; // dup2, dup2_x1, dup2_x2
+        for (int opcode = 96; opcode <= 115; opcode += 4) {
+            // add, sub, mul, div, rem 的 i, l, f, d 四种
+            e[opcode] = -1; e[opcode + 1] = -2; e[opcode + 2] = -1; e[opcode + 3] = -2;
         }
+        Arrays.fill(e, 120, 126, (byte) -1); // 移位: 移位的位数都是 int
+        e[126] = -1; e[127] = -2; e[128] = -1; e[129] = -2; e[130] = -1; e[131] = -2; // and, or, xor
+        e[133] = 1; e[135] = 1; e[136] = -1; e[137] = -1; // i2l, i2d, l2i, l2f
+        e[140] = 1; e[141] = 1; e[142] = -1; e[144] = -1; // f2l, f2d, d2i, d2f
+        e[148] = -3; e[149] = e[150] = -1; e[151] = e[152] = -3; // lcmp, fcmp, dcmp
+        Arrays.fill(e, 153, 159, (byte) -1); // if<cond>
+        Arrays.fill(e, 159, 167, (byte) -2); // if_icmp<cond>, if_acmp<cond>
+        e[168] = 1; // jsr
+        e[170] = e[171] = -1; // tableswitch, lookupswitch
+        e[172] = -1; e[173] = -2; e[174] = -1; e[175] = -2; e[176] = -1; // xreturn
+        Arrays.fill(e, 178, 187, (byte) VARIABLE_STACK_EFFECT); // getstatic ~ invokedynamic
+        e[187] = 1; // new
+        e[191] = -1; // athrow
+        e[194] = e[195] = -1; // monitorenter, monitorexit
+        e[197] = (byte) VARIABLE_STACK_EFFECT; // multianewarray
+        e[198] = e[199] = -1; // ifnull, ifnonnull
+        e[201] = 1; // jsr_w
     }
-}
 
-/**
- * ldc: 从运行时常量池中取出一个值，然后入栈到操作数栈
- * <pre>
- * ldc = 18 (0x12)
- * </pre>
- */
-class LDC extends Instruction {
+    private Instruction() {
+    }
+
+    /**
+     * 执行 opcode 后操作数栈深度的变化, 需要查找常量池的指令返回 {@link #VARIABLE_STACK_EFFECT}
+     */
+    static int stackEffect(int opcode) {
+        return STACK_EFFECTS[opcode];
+    }
 
-    int index; //u1 常量池中的索引
+    static String name(int opcode) {
+        return opcode < NAMES.length ? NAMES[opcode] : null;
+    }
+
+    static int format(int opcode) {
+        return FORMATS[opcode];
+    }
 
-    @Override
-    public void parse(byte[] bytes, int offset) {
-        index = Utils.readUnsignedByte(bytes, offset);
+    /**
+     * 指令操作数在 switch 中对齐后的起始位置: 操作码之后补 0~3 个字节, 使其相对代码起始位置 4 字节对齐
+     */
+    static int switchOperands(int pc) {
+        return (pc + 4) & ~3;
     }
 
-    @Override
-    public String name() {
-        return "ldc";
+    /**
+     * pc 处指令的长度(包括操作码), 未定义的操作码返回 -1
+     *
+     * @param codeStart code[] 在类文件中的起始位置
+     * @param pc        指令相对 code[] 起始位置的偏移
+     */
+    static int length(ByteBuffer bytes, int codeStart, int pc) {
+        int format = FORMATS[Utils.readUnsignedByte(bytes, codeStart + pc)];
+        if (format < 0) {
+            return -1;
+        }
+        int length = FORMAT_LENGTHS[format];
+        if (length > 0) {
+            return length;
+        }
+        if (format == WIDE) {
+            // wide iinc: u2 索引, s2 增量; 其他: u2 索引
+            return Utils.readUnsignedByte(bytes, codeStart + pc + 1) == IINC_OPCODE ? 6 : 4;
+        }
+        int operands = switchOperands(pc);
+        if (format == TABLESWITCH) {
+            int low = Utils.read4Number(bytes, codeStart + operands + 4);
+            int high = Utils.read4Number(bytes, codeStart + operands + 8);
+            return operands - pc + 12 + (high - low + 1) * 4;
+        }
+        int npairs = Utils.read4Number(bytes, codeStart + operands + 4);
+        return operands - pc + 8 + npairs * 8;
     }
 
-    @Override
-    public int[] values() {
-        return new int[]{index};
+    /**
+     * 输出 cursor 当前所在指令的助记符和操作数, 跳转偏移输出为跳转目标的 pc
+     */
+    static void print(StringBuilder sb, InstructionCursor cursor) {
+        int opcode = cursor.opcode();
+        sb.append(cursor.pc()).append(": ");
+        if (cursor.wide()) {
+            sb.append("wide ");
+        }
+        sb.append(name(opcode));
+        int format = cursor.wide() ? WIDE : FORMATS[opcode];
+        boolean constant = format == CP1 || format == CP2 || format == INVOKEDYNAMIC
+                || format == INVOKEINTERFACE || format == MULTIANEWARRAY;
+        if (format == TABLESWITCH || format == LOOKUPSWITCH) {
+            sb.append(" {");
+            int count = cursor.operandCount();
+            if (format == TABLESWITCH) {
+                int low = cursor.operand(1);
+                for (int i = 3; i < count; i++) {
+                    sb.append(low + i - 3).append(": ").append(cursor.operand(i)).append(", ");
+                }
+            } else {
+                for (int i = 2; i < count; i += 2) {
+                    sb.append(cursor.operand(i)).append(": ").append(cursor.operand(i + 1)).append(", ");
+                }
+            }
+            sb.append("default: ").append(cursor.operand(0)).append('}');
+            return;
+        }
+        for (int i = 0, count = cursor.operandCount(); i < count; i++) {
+            sb.append(i == 0 ? (constant ? " #" : " ") : ", ").append(cursor.operand(i));
+        }
     }
 }
 
@@ -0,0 +1,178 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 在类文件的 buffer 上直接遍历一个方法的指令, 不复制 code[], 也不为每条指令创建对象.
+ * 一个 cursor 可以通过 {@link #reset(ByteBuffer, int, int)} 反复用于不同的方法
+ * <pre>
+ * InstructionCursor cursor = codeInfo.cursor();
+ * while (cursor.next()) {
+ *     int opcode = cursor.opcode();
+ *     ...
+ * }
+ * </pre>
+ */
+final class InstructionCursor {
+    private ByteBuffer bytes;
+    private int codeStart;
+    private int codeLength;
+
+    private int pc;
+    private int length;
+    private int opcode;
+    private int format;
+    private boolean wide;
+
+    InstructionCursor() {
+    }
+
+    InstructionCursor(ByteBuffer bytes, int codeStart, int codeLength) {
+        reset(bytes, codeStart, codeLength);
+    }
+
+    /**
+     * 重新指向另一段 code[], 之后第一次调用 {@link #next()} 会停在第一条指令上
+     */
+    InstructionCursor reset(ByteBuffer bytes, int codeStart, int codeLength) {
+        this.bytes = bytes;
+        this.codeStart = codeStart;
+        this.codeLength = codeLength;
+        this.pc = 0;
+        this.length = 0;
+        return this;
+    }
+
+    /**
+     * 移动到下一条指令, 到达末尾或者遇到未定义的操作码时返回 false
+     */
+    boolean next() {
+        int nextPc = pc + length;
+        if (nextPc >= codeLength) {
+            return false;
+        }
+        int nextLength = Instruction.length(bytes, codeStart, nextPc);
+        if (nextLength <= 0) {
+            return false;
+        }
+        pc = nextPc;
+        length = nextLength;
+        opcode = Utils.readUnsignedByte(bytes, codeStart + pc);
+        format = Instruction.format(opcode);
+        wide = format == Instruction.WIDE;
+        if (wide) {
+            opcode = Utils.readUnsignedByte(bytes, codeStart + pc + 1);
+        }
+        return true;
+    }
+
+    /**
+     * 直接移动到 pc 处的指令, pc 必须是一条指令的起始位置; pc 越界或者是未定义的操作码时返回 false
+     */
+    boolean seek(int pc) {
+        this.pc = pc;
+        this.length = 0;
+        return next();
+    }
+
+    /**
+     * 是否完整地遍历了所有指令, 在 {@link #next()} 返回 false 之后调用
+     */
+    boolean atEnd() {
+        return pc + length >= codeLength;
+    }
+
+    /**
+     * 当前指令相对 code[] 起始位置的偏移
+     */
+    int pc() {
+        return pc;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * 当前指令的操作码, wide 指令返回被修饰的指令的操作码
+     */
+    int opcode() {
+        return opcode;
+    }
+
+    boolean wide() {
+        return wide;
+    }
+
+    int operandCount() {
+        if (wide) {
+            return opcode == Instruction.IINC_OPCODE ? 2 : 1;
+        }
+        switch (format) {
+            case Instruction.NONE:
+                return 0;
+            case Instruction.IINC:
+            case Instruction.INVOKEINTERFACE:
+            case Instruction.MULTIANEWARRAY:
+                return 2;
+            case Instruction.TABLESWITCH:
+                return 3 + operand(2) - operand(1) + 1;
+            case Instruction.LOOKUPSWITCH:
+                return 2 + operand(1) * 2;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * 当前指令的第 i 个操作数
+     * <pre>
+     * 跳转指令:      跳转目标的 pc
+     * iinc:         局部变量索引, 增量
+     * invokeinterface, multianewarray: 常量池索引, 参数个数/维数
+     * tableswitch:  default 的目标 pc, low, high, 之后是每个 case 的目标 pc
+     * lookupswitch: default 的目标 pc, npairs, 之后是 match 和目标 pc 交替
+     * </pre>
+     */
+    int operand(int i) {
+        int at = codeStart + pc + 1;
+        if (wide) {
+            return i == 0 ? Utils.read2Number(bytes, at + 1) : bytes.getShort(at + 3);
+        }
+        switch (format) {
+            case Instruction.S1:
+                return bytes.get(at);
+            case Instruction.S2:
+                return bytes.getShort(at);
+            case Instruction.LOCAL:
+            case Instruction.CP1:
+            case Instruction.NEWARRAY:
+                return Utils.readUnsignedByte(bytes, at);
+            case Instruction.CP2:
+            case Instruction.INVOKEDYNAMIC:
+                return Utils.read2Number(bytes, at);
+            case Instruction.BRANCH2:
+                return pc + bytes.getShort(at);
+            case Instruction.BRANCH4:
+                return pc + bytes.getInt(at);
+            case Instruction.IINC:
+                return i == 0 ? Utils.readUnsignedByte(bytes, at) : bytes.get(at + 1);
+            case Instruction.INVOKEINTERFACE:
+            case Instruction.MULTIANEWARRAY:
+                return i == 0 ? Utils.read2Number(bytes, at) : Utils.readUnsignedByte(bytes, at + 2);
+            case Instruction.TABLESWITCH: {
+                int operands = codeStart + Instruction.switchOperands(pc);
+                int value = bytes.getInt(operands + i * 4);
+                return i == 0 || i > 2 ? pc + value : value;
+            }
+            case Instruction.LOOKUPSWITCH: {
+                int operands = codeStart + Instruction.switchOperands(pc);
+                int value = bytes.getInt(operands + i * 4);
+                return i == 0 || (i > 1 && i % 2 == 1) ? pc + value : value;
+            }
+            default:
+                throw new IndexOutOfBoundsException("No operand " + i + " for " + Instruction.name(opcode));
+        }
+    }
+}
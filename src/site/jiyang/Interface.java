@@ -1,6 +1,7 @@
 package site.jiyang;
 
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 class Interfaces extends Section {
@@ -8,8 +9,8 @@ class Interfaces extends Section {
     int interfaceCount;
     int[] indexs;
 
-    public Interfaces(int start, byte[] bytes) {
-        super(start, bytes);
+    public Interfaces(ParseContext context, int start, ByteBuffer bytes) {
+        super(context, start, bytes);
     }
 
     @Override
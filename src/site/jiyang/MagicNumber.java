@@ -1,10 +1,12 @@
 package site.jiyang;
 
 
+import java.nio.ByteBuffer;
+
 class MagicNumber extends Section {
 
-    public MagicNumber(int start, byte[] bytes) {
-        super(start, bytes);
+    public MagicNumber(ParseContext context, int start, ByteBuffer bytes) {
+        super(context, start, bytes);
     }
 
     @Override
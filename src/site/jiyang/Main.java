@@ -1,30 +1,512 @@
 package site.jiyang;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Create by StefanJi in 2020-01-21
  */
 public class Main {
+    private static final int STRESS_ROUNDS = 8;
+    private static final String SECTIONS = "--sections=";
+    private static final String FORMAT = "--format=";
+    private static final String OUTPUT = "--output=";
+    private static final String CACHE = "--cache=";
+    private static final String CACHE_SIZE = "--cache-size=";
+    private static final long DEFAULT_CACHE_MB = 512;
+    private static final String PORT = "--port=";
+    private static final String METRICS = "--metrics";
+    private static final int WARM_UP_ROUNDS = 5;
+
     public static void main(String[] args) {
         if (args.length < 1) {
             throw new IllegalArgumentException("Must pass class file path.");
         }
+        if ("--batch".equals(args[0])) {
+            batch(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--hierarchy".equals(args[0])) {
+            hierarchy(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--callgraph".equals(args[0])) {
+            callGraph(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--max-stack".equals(args[0])) {
+            maxStack(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--daemon".equals(args[0])) {
+            daemon(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--watch".equals(args[0])) {
+            watch(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--diff".equals(args[0])) {
+            diff(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--strip-debug".equals(args[0])) {
+            stripDebug(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if ("--stress".equals(args[0])) {
+            stress(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         String path = args[0];
         System.out.println(String.format("========== Start Parse %s =========", path));
         try {
-            FileInputStream fis = new FileInputStream(new File(path));
-            int count = fis.available();
-            byte[] buff = new byte[count];
-            int read = fis.read(buff);
-            if (read != count) {
-                return;
+            new BytecodeParser().parse(Utils.map(new File(path)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 批量解析目录, jar 包或者 classpath 下的所有类文件
+     * 路径之前可以有以下参数:
+     * --sections=... 只解析需要的部分, 见 {@link ParseOptions#parse(String)}
+     * --format=jsonl|binary 把每个类的结构输出为 JSON Lines 或者二进制记录, 见 {@link OutputSink}
+     * --output=file 输出到文件, 默认输出到标准输出, 此时统计信息输出到标准错误
+     * --cache=dir 把解析结果缓存在 dir 中, 见 {@link ParseCache}; --cache-size=MB 缓存的大小上限, 默认 512MB.
+     *     命中缓存的类没有解析, 不计入 --metrics
+     * --metrics 统计每个解析阶段的耗时, 字节数和分配的内存, 见 {@link ParseMetrics}; 默认模式和 --format 都会统计
+     */
+    private static void batch(String[] paths) {
+        int options = ParseOptions.ALL;
+        String format = null;
+        String output = null;
+        String cacheDirectory = null;
+        long cacheMegabytes = DEFAULT_CACHE_MB;
+        int first = 0;
+        for (; first < paths.length && paths[first].startsWith("--"); first++) {
+            String arg = paths[first];
+            if (arg.startsWith(SECTIONS)) {
+                options = ParseOptions.parse(arg.substring(SECTIONS.length()));
+            } else if (arg.startsWith(FORMAT)) {
+                format = arg.substring(FORMAT.length());
+            } else if (arg.startsWith(OUTPUT)) {
+                output = arg.substring(OUTPUT.length());
+            } else if (arg.startsWith(CACHE)) {
+                cacheDirectory = arg.substring(CACHE.length());
+            } else if (arg.startsWith(CACHE_SIZE)) {
+                cacheMegabytes = Long.parseLong(arg.substring(CACHE_SIZE.length()));
+            } else if (METRICS.equals(arg)) {
+                ParseMetrics.setEnabled(true);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        paths = Arrays.copyOfRange(paths, first, paths.length);
+        if (paths.length < 1) {
+            throw new IllegalArgumentException("Must pass directories, jars or classpath.");
+        }
+        if (cacheDirectory != null && "jsonl".equals(format)) {
+            throw new IllegalArgumentException("--cache only works with --format=binary.");
+        }
+        BatchParser batchParser = new BatchParser(options);
+        WritableByteChannel channel = null;
+        ParseCache cache = null;
+        try {
+            if (cacheDirectory != null) {
+                cache = new ParseCache(new File(cacheDirectory), options, cacheMegabytes * 1024 * 1024);
+                batchParser.cache(cache);
+            }
+            if (format != null) {
+                channel = output == null
+                        ? Channels.newChannel(System.out) : new FileOutputStream(output).getChannel();
+                batchParser.output(format, channel);
+            }
+            BatchParser.Result result = batchParser.run(Arrays.asList(paths));
+            for (BatchParser.Failure failure : result.failures) {
+                System.err.println("Failed: " + failure);
+            }
+            PrintStream summary = format != null && output == null ? System.err : System.out;
+            summary.println(result);
+            if (cache != null) {
+                summary.println(cache);
+            }
+            if (ParseMetrics.isEnabled()) {
+                summary.println(ParseMetrics.report());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            batchParser.shutdown();
+            if (cache != null) {
+                try {
+                    cache.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (channel != null && output != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 建立 classpath 的继承关系索引, 然后执行查询, 类名使用内部形式, 例如 java/util/List:
+     * --subtypes=X 所有子类型; --implementors=Y 接口的所有实现类; --supers=Z 父类链
+     */
+    private static void hierarchy(String[] args) {
+        List<String> queries = new ArrayList<>();
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            queries.add(args[first]);
+        }
+        String[] paths = Arrays.copyOfRange(args, first, args.length);
+        if (paths.length < 1) {
+            throw new IllegalArgumentException("Must pass directories, jars or classpath.");
+        }
+        try {
+            List<BatchParser.Failure> failures = new ArrayList<>();
+            long begin = System.nanoTime();
+            ClassHierarchy hierarchy = ClassHierarchy.build(Arrays.asList(paths), failures);
+            for (BatchParser.Failure failure : failures) {
+                System.err.println("Failed: " + failure);
+            }
+            System.out.println(String.format("%s built in %.1f ms", hierarchy, (System.nanoTime() - begin) / 1e6));
+            for (String query : queries) {
+                int split = query.indexOf('=');
+                String kind = split < 0 ? query : query.substring(0, split);
+                int id = split < 0 ? -1 : hierarchy.id(query.substring(split + 1));
+                if (id < 0) {
+                    System.err.println("Not found class for " + query);
+                    continue;
+                }
+                begin = System.nanoTime();
+                int[] result;
+                switch (kind) {
+                    case "--subtypes":
+                        result = hierarchy.subtypes(id);
+                        break;
+                    case "--implementors":
+                        result = hierarchy.implementors(id);
+                        break;
+                    case "--supers":
+                        result = hierarchy.superclassChain(id);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown query: " + query);
+                }
+                long elapsed = System.nanoTime() - begin;
+                System.out.println(String.format("%s: %d classes in %.1f us", query, result.length, elapsed / 1e3));
+                for (String name : hierarchy.names(result)) {
+                    System.out.println("    " + name);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 建立 classpath 的调用图, 然后执行查询, 方法使用 "类名.方法名描述符" 的形式, 例如 java/lang/Object.toString()Ljava/lang/String;
+     * --callees=M 调用的方法; --callers=M 调用它的方法; --fanout=N 调用方法最多的 N 个方法;
+     * --dead 从 main 方法和静态初始化方法出发无法到达的方法(按类层次分析处理虚调用)
+     */
+    private static void callGraph(String[] args) {
+        List<String> queries = new ArrayList<>();
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            queries.add(args[first]);
+        }
+        List<String> paths = Arrays.asList(Arrays.copyOfRange(args, first, args.length));
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("Must pass directories, jars or classpath.");
+        }
+        try {
+            List<BatchParser.Failure> failures = new ArrayList<>();
+            long begin = System.nanoTime();
+            CallGraph graph = CallGraph.build(paths, failures);
+            for (BatchParser.Failure failure : failures) {
+                System.err.println("Failed: " + failure);
+            }
+            System.out.println(String.format("%s built in %.1f ms", graph, (System.nanoTime() - begin) / 1e6));
+            for (String query : queries) {
+                int split = query.indexOf('=');
+                String kind = split < 0 ? query : query.substring(0, split);
+                String value = split < 0 ? null : query.substring(split + 1);
+                int[] result;
+                switch (kind) {
+                    case "--callees":
+                    case "--callers": {
+                        int id = graph.id(value);
+                        if (id < 0) {
+                            System.err.println("Not found method for " + query);
+                            continue;
+                        }
+                        result = "--callees".equals(kind) ? graph.callees(id) : graph.callers(id);
+                        break;
+                    }
+                    case "--fanout":
+                        result = graph.topFanOut(Integer.parseInt(value));
+                        break;
+                    case "--dead": {
+                        ClassHierarchy hierarchy = ClassHierarchy.build(paths, new ArrayList<>());
+                        result = graph.unreachable(graph.entryPoints(), hierarchy);
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("Unknown query: " + query);
+                }
+                System.out.println(String.format("%s: %d methods", query, result.length));
+                for (int id : result) {
+                    System.out.println("    " + graph.name(id) + ("--fanout".equals(kind) ? " " + graph.fanOut(id) : ""));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 重新计算每个方法的 max_stack 和 max_locals, 输出和声明不一致的方法
+     */
+    private static void maxStack(String[] paths) {
+        if (paths.length < 1) {
+            throw new IllegalArgumentException("Must pass directories, jars or classpath.");
+        }
+        try {
+            StackAnalyzer.Result result = StackAnalyzer.analyze(Arrays.asList(paths));
+            for (BatchParser.Failure failure : result.failures) {
+                System.err.println("Failed: " + failure);
+            }
+            for (StackAnalyzer.Report report : result.mismatches) {
+                System.out.println(report);
+            }
+            System.out.println(result);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 启动常驻的解析服务, 见 {@link ParseDaemon}
+     * --port=N 监听 127.0.0.1 的端口, 默认 7878, 0 表示任意端口; 之后的路径在启动时先解析几遍用来预热
+     */
+    private static void daemon(String[] args) {
+        int port = ParseDaemon.DEFAULT_PORT;
+        int first = 0;
+        if (first < args.length && args[first].startsWith(PORT)) {
+            port = Integer.parseInt(args[first].substring(PORT.length()));
+            first++;
+        }
+        try (ParseDaemon daemon = new ParseDaemon(port)) {
+            if (first < args.length) {
+                BatchParser.Result result = daemon.warmUp(Arrays.asList(Arrays.copyOfRange(args, first, args.length)),
+                        WARM_UP_ROUNDS);
+                System.out.println("Warmed up: " + result);
+            }
+            System.out.println("Listening on 127.0.0.1:" + daemon.port());
+            daemon.serve();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 监视输出目录, 类文件新建或修改后重新解析, 见 {@link ClassWatcher}; 一直运行直到进程结束
+     * 目录之前可以有 --sections=...
+     */
+    private static void watch(String[] args) {
+        int options = ParseOptions.ALL;
+        int first = 0;
+        if (first < args.length && args[first].startsWith(SECTIONS)) {
+            options = ParseOptions.parse(args[first].substring(SECTIONS.length()));
+            first++;
+        }
+        if (first == args.length) {
+            throw new IllegalArgumentException("Must pass directories to watch.");
+        }
+        List<Path> roots = new ArrayList<>();
+        for (int i = first; i < args.length; i++) {
+            roots.add(Paths.get(args[i]));
+        }
+        try (ClassWatcher watcher = new ClassWatcher(roots, options)) {
+            printBatch(watcher.start());
+            while (true) {
+                ClassWatcher.Batch batch = watcher.poll(1, TimeUnit.SECONDS);
+                if (batch != null) {
+                    printBatch(batch);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void printBatch(ClassWatcher.Batch batch) {
+        for (BatchParser.Failure failure : batch.failures) {
+            System.err.println("Failed: " + failure);
+        }
+        System.out.println(batch);
+    }
+
+    /**
+     * 比较两个类文件, 目录, jar 包或 classpath 中的类文件, 输出结构有差异的类文件和差异的部分, 见 {@link ClassDiff}
+     */
+    private static void diff(String[] args) {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Must pass old and new path.");
+        }
+        BatchParser batchParser = new BatchParser();
+        try {
+            ClassDiff.Result result = batchParser.diff(Collections.singletonList(args[0]),
+                    Collections.singletonList(args[1]));
+            for (BatchParser.Failure failure : result.failures) {
+                System.err.println("Failed: " + failure);
+            }
+            for (ClassDiff diff : result.changed) {
+                System.out.println(diff);
+            }
+            System.out.println(result);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            batchParser.shutdown();
+        }
+    }
+
+    /**
+     * 去掉类文件或者 jar 包中所有类文件的调试信息, 写到新的文件, 见 {@link ClassWriter#stripDebug()}
+     * jar 包中的其他条目保留原来的压缩方式, CRC 和时间, 以流的方式复制; 类文件也保留原来的压缩方式
+     */
+    private static void stripDebug(String[] args) {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Must pass input and output path.");
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        long start = System.nanoTime();
+        long before = 0;
+        long after = 0;
+        int classes = 0;
+        try {
+            if (input.getName().endsWith(".class")) {
+                // 读到堆中而不是映射, 输出和输入是同一个文件时打开输出会先把输入截断
+                byte[] content = Files.readAllBytes(input.toPath());
+                ClassWriter writer = new ClassWriter(ByteBuffer.wrap(content)).stripDebug();
+                try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    writer.writeTo(out);
+                    before += content.length;
+                    after += out.size();
+                    classes++;
+                }
+            } else {
+                if (output.exists() && Files.isSameFile(input.toPath(), output.toPath())) {
+                    throw new IllegalArgumentException("Output must not be the input jar.");
+                }
+                try (ZipFile zip = new ZipFile(input);
+                     ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(output))) {
+                    byte[] buff = new byte[8192];
+                    Enumeration<? extends ZipEntry> entries = zip.entries();
+                    while (entries.hasMoreElements()) {
+                        ZipEntry entry = entries.nextElement();
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                                // 复制条目的方法, CRC 和大小; DEFLATED 的条目重新压缩后的大小可能不同
+                                ZipEntry copy = new ZipEntry(entry);
+                                if (copy.getMethod() != ZipEntry.STORED) {
+                                    copy.setCompressedSize(-1);
+                                }
+                                zipOut.putNextEntry(copy);
+                                int read;
+                                while ((read = in.read(buff)) != -1) {
+                                    zipOut.write(buff, 0, read);
+                                }
+                            } else {
+                                byte[] content = readAll(in, buff);
+                                ClassWriter writer = new ClassWriter(ByteBuffer.wrap(content)).stripDebug();
+                                int size = writer.size();
+                                ZipEntry copy = new ZipEntry(entry.getName());
+                                copy.setTime(entry.getTime());
+                                copy.setMethod(entry.getMethod());
+                                if (entry.getMethod() == ZipEntry.STORED) {
+                                    copy.setSize(size);
+                                    copy.setCompressedSize(size);
+                                    copy.setCrc(writer.crc32());
+                                }
+                                zipOut.putNextEntry(copy);
+                                writer.writeTo(zipOut);
+                                before += content.length;
+                                after += size;
+                                classes++;
+                            }
+                        }
+                        zipOut.closeEntry();
+                    }
+                }
+            }
+            System.out.println(String.format("Stripped %d classes: %d -> %d bytes in %d ms",
+                    classes, before, after, (System.nanoTime() - start) / 1000000));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static byte[] readAll(InputStream in, byte[] buff) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read(buff)) != -1) {
+            bytes.write(buff, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 在多个线程中并发重复解析同一批类文件, 检查结果和顺序解析的一致
+     */
+    private static void stress(String[] paths) {
+        if (paths.length < 1) {
+            throw new IllegalArgumentException("Must pass directories, jars or classpath.");
+        }
+        BatchParser batchParser = new BatchParser();
+        try {
+            List<BatchParser.Failure> failures = batchParser.stress(Arrays.asList(paths), STRESS_ROUNDS);
+            for (BatchParser.Failure failure : failures) {
+                System.err.println("Mismatch: " + failure);
             }
-            new BytecodeParser().parse(buff);
+            System.out.println(String.format("Stress finished: %d rounds, %d mismatches", STRESS_ROUNDS, failures.size()));
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            batchParser.shutdown();
         }
     }
 }
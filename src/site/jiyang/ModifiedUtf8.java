@@ -0,0 +1,159 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 类文件中 CONSTANT_Utf8 使用的 Modified UTF-8 编码, 和标准 UTF-8 的区别:
+ * <pre>
+ * '\u0000'          编码为 2 字节 C0 80, 而不是 1 字节 00
+ * U+10000 以上的字符 编码为两个代理字符(surrogate), 每个 3 字节, 而不是 4 字节
+ * </pre>
+ * 所以不能用平台默认字符集或者 UTF-8 字符集解码. 类文件中的字符串绝大多数是 ASCII,
+ * 先每次检查 8 个字节是否都是 ASCII, 全部是 ASCII 时直接按 Latin-1 构造字符串
+ */
+final class ModifiedUtf8 {
+    private static final long NON_ASCII = 0x8080808080808080L;
+
+    private ModifiedUtf8() {
+    }
+
+    static String decode(ByteBuffer bytes, int offset, int length) {
+        if (isAscii(bytes, offset, length)) {
+            if (bytes.hasArray()) {
+                return new String(bytes.array(), bytes.arrayOffset() + offset, length, StandardCharsets.ISO_8859_1);
+            }
+            byte[] ascii = new byte[length];
+            for (int i = 0; i < length; i++) {
+                ascii[i] = bytes.get(offset + i);
+            }
+            return new String(ascii, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = new char[length];
+        int count = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; ) {
+            int b = bytes.get(i) & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+                i++;
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < end) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (continuation(bytes, i + 1)));
+                i += 2;
+            } else if ((b & 0xF0) == 0xE0 && i + 2 < end) {
+                chars[count++] = (char) (((b & 0x0F) << 12)
+                        | (continuation(bytes, i + 1) << 6) | continuation(bytes, i + 2));
+                i += 3;
+            } else {
+                throw new IllegalArgumentException("Malformed modified UTF-8 at " + i);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static int continuation(ByteBuffer bytes, int offset) {
+        int b = bytes.get(offset) & 0xFF;
+        if ((b & 0xC0) != 0x80) {
+            throw new IllegalArgumentException("Malformed modified UTF-8 at " + offset);
+        }
+        return b & 0x3F;
+    }
+
+    /**
+     * 每次读取 8 个字节检查最高位, 剩下不足 8 个字节时逐个检查
+     */
+    static boolean isAscii(ByteBuffer bytes, int offset, int length) {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            if ((bytes.getLong(offset + i) & NON_ASCII) != 0) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (bytes.get(offset + i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 不解码, 直接比较 bytes 中的编码和 value 的编码是否相同
+     */
+    static boolean equals(ByteBuffer bytes, int offset, int length, String value) {
+        return compare(bytes, offset, length, value) == length;
+    }
+
+    /**
+     * 不解码, 直接比较 bytes 中的编码是否以 prefix 的编码开头
+     */
+    static boolean startsWith(ByteBuffer bytes, int offset, int length, String prefix) {
+        return compare(bytes, offset, length, prefix) >= 0;
+    }
+
+    /**
+     * 逐个字符把 value 编码后和 bytes 比较
+     *
+     * @return value 完整匹配时返回匹配的字节数, 否则返回 -1
+     */
+    private static int compare(ByteBuffer bytes, int offset, int length, String value) {
+        int position = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                if (position >= length || bytes.get(offset + position) != c) {
+                    return -1;
+                }
+                position++;
+            } else if (c < 0x800) {
+                if (position + 2 > length
+                        || bytes.get(offset + position) != (byte) (0xC0 | (c >> 6))
+                        || bytes.get(offset + position + 1) != (byte) (0x80 | (c & 0x3F))) {
+                    return -1;
+                }
+                position += 2;
+            } else {
+                if (position + 3 > length
+                        || bytes.get(offset + position) != (byte) (0xE0 | (c >> 12))
+                        || bytes.get(offset + position + 1) != (byte) (0x80 | ((c >> 6) & 0x3F))
+                        || bytes.get(offset + position + 2) != (byte) (0x80 | (c & 0x3F))) {
+                    return -1;
+                }
+                position += 3;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * value 按 Modified UTF-8 编码后的字节数
+     */
+    static int encodedLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c != 0 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    /**
+     * 把 value 按 Modified UTF-8 编码写入 out, 写入 {@link #encodedLength(String)} 个字节
+     */
+    static void encode(String value, ByteBuffer out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package site.jiyang;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 输出缓冲区, 内容直接写入 ByteBuffer, 不拼接中间字符串
+ * 只在一条记录结束时({@link #endRecord()})才可能写入 channel, 所以多个线程各自使用一个
+ * OutputBuffer 写同一个 channel 时, 记录之间不会交错. 一条记录超过缓冲区大小时缓冲区会扩容
+ */
+final class OutputBuffer {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final WritableByteChannel channel;
+    private final int flushThreshold;
+    private ByteBuffer buffer;
+    private int recordStart;
+    private final byte[] digits = new byte[20];
+
+    OutputBuffer(WritableByteChannel channel) {
+        this(channel, DEFAULT_CAPACITY);
+    }
+
+    OutputBuffer(WritableByteChannel channel, int capacity) {
+        this.channel = channel;
+        this.flushThreshold = capacity / 2;
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    private void ensure(int size) {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    OutputBuffer put(int b) {
+        ensure(1);
+        buffer.put((byte) b);
+        return this;
+    }
+
+    OutputBuffer putU2(int value) {
+        ensure(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    OutputBuffer putU4(int value) {
+        ensure(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    /**
+     * 回填之前 {@link #position()} 处预留的 u2
+     */
+    void patchU2(int position, int value) {
+        buffer.putShort(position, (short) value);
+    }
+
+    /**
+     * 回填之前 {@link #position()} 处预留的 u4
+     */
+    void patchU4(int position, int value) {
+        buffer.putInt(position, value);
+    }
+
+    /**
+     * 写入只包含 ASCII 字符的常量字符串, 例如 JSON 的键
+     */
+    OutputBuffer putAscii(String ascii) {
+        int length = ascii.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) ascii.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * 以十进制写入, 不创建字符串
+     */
+    OutputBuffer putDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            return putAscii("-9223372036854775808");
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            buffer.put(digits[--count]);
+        }
+        return this;
+    }
+
+    OutputBuffer putBytes(byte[] src) {
+        ensure(src.length);
+        buffer.put(src);
+        return this;
+    }
+
+    /**
+     * 原样复制 src 中的字节
+     */
+    OutputBuffer putBytes(ByteBuffer src, int offset, int length) {
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(src.get(offset + i));
+        }
+        return this;
+    }
+
+    /**
+     * 把类文件中的 Modified UTF-8 字节直接写成 JSON 字符串, 不先解码为 String.
+     * 普通的多字节字符原样复制; 编码为 C0 80 的 NUL 和按代理对编码的补充字符转义为 \\uXXXX
+     */
+    OutputBuffer putJsonString(ByteBuffer src, int offset, int length) {
+        ensure(length * 6 + 2);
+        buffer.put((byte) '"');
+        for (int i = 0; i < length; i++) {
+            int b = src.get(offset + i) & 0xFF;
+            if (b < 0x80) {
+                if (b == '"' || b == '\\') {
+                    buffer.put((byte) '\\').put((byte) b);
+                } else if (b < 0x20) {
+                    putUnicodeEscape(b);
+                } else {
+                    buffer.put((byte) b);
+                }
+            } else if (b == 0xC0 && i + 1 < length && (src.get(offset + i + 1) & 0xFF) == 0x80) {
+                putUnicodeEscape(0);
+                i++;
+            } else if (b == 0xED && i + 2 < length && (src.get(offset + i + 1) & 0xE0) == 0xA0) {
+                int c = ((b & 0x0F) << 12) | ((src.get(offset + i + 1) & 0x3F) << 6) | (src.get(offset + i + 2) & 0x3F);
+                putUnicodeEscape(c);
+                i += 2;
+            } else {
+                buffer.put((byte) b);
+            }
+        }
+        buffer.put((byte) '"');
+        return this;
+    }
+
+    /**
+     * 写入常量池中 index 处的 Utf8 常量, 不是 Utf8 常量时写入 null
+     */
+    OutputBuffer putJsonUtf8(ConstantPool constantPool, int index) {
+        if (index <= 0 || index >= constantPool.poolCount || constantPool.tag(index) != 1) {
+            return putAscii("null");
+        }
+        int offset = constantPool.offset(index);
+        return putJsonString(constantPool.bytes, offset + 3, Utils.read2Number(constantPool.bytes, offset + 1));
+    }
+
+    /**
+     * 写入 u2 长度加上常量池中 index 处 Utf8 常量的原始字节, 不是 Utf8 常量时长度为 0xFFFF
+     */
+    OutputBuffer putUtf8(ConstantPool constantPool, int index) {
+        if (index <= 0 || index >= constantPool.poolCount || constantPool.tag(index) != 1) {
+            return putU2(0xFFFF);
+        }
+        int offset = constantPool.offset(index);
+        int length = Utils.read2Number(constantPool.bytes, offset + 1);
+        putU2(length);
+        return putBytes(constantPool.bytes, offset + 3, length);
+    }
+
+    private void putUnicodeEscape(int c) {
+        buffer.put((byte) '\\').put((byte) 'u')
+                .put(HEX[(c >> 12) & 0xF]).put(HEX[(c >> 8) & 0xF])
+                .put(HEX[(c >> 4) & 0xF]).put(HEX[c & 0xF]);
+    }
+
+    /**
+     * 一条记录结束, 缓冲的内容较多时写入 channel
+     */
+    void endRecord() {
+        if (buffer.position() >= flushThreshold) {
+            flush();
+        }
+        recordStart = buffer.position();
+    }
+
+    /**
+     * 丢弃当前还没有结束的记录, 例如类文件解析到一半失败时
+     */
+    void discardRecord() {
+        buffer.position(recordStart);
+    }
+
+    void flush() {
+        buffer.flip();
+        try {
+            synchronized (channel) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+            recordStart = 0;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把类文件的结构写入 {@link OutputBuffer} 的 visitor, 每个类写成一条记录
+ * 常量和名称都直接从类文件的字节中复制, 不经过 toString
+ */
+abstract class OutputSink extends ClassVisitor {
+    final OutputBuffer out;
+    ParseContext context;
+
+    OutputSink(OutputBuffer out) {
+        this.out = out;
+    }
+
+    /**
+     * @param format "jsonl" 或 "binary"
+     */
+    static OutputSink create(String format, OutputBuffer out) {
+        switch (format) {
+            case "jsonl":
+                return new JsonLinesSink(out);
+            case "binary":
+                return new BinarySink(out);
+            default:
+                throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+    }
+
+    /**
+     * CONSTANT_Class 指向的类名的 Utf8 常量索引, 不是 CONSTANT_Class 时返回 0
+     */
+    int classNameIndex(int classIndex) {
+        ConstantPool constantPool = context.constantPool;
+        if (classIndex <= 0 || classIndex >= constantPool.poolCount || constantPool.tag(classIndex) != 7) {
+            return 0;
+        }
+        return Utils.read2Number(constantPool.bytes, constantPool.offset(classIndex) + 1);
+    }
+}
+
+/**
+ * 每个类输出为一行 JSON:
+ * <pre>
+ * {"magic":3405691582,"minor":0,"major":52,
+ *  "constants":[{"index":1,"tag":10,"class":2,"nameAndType":3},{"index":4,"tag":1,"value":"java/lang/Object"},...],
+ *  "access":33,"this":"a/B","super":"java/lang/Object","interfaces":["java/lang/Runnable"],
+ *  "fields":[{"access":2,"name":"x","descriptor":"I","attributes":[{"name":"Signature","length":2}]}],
+ *  "methods":[{"access":1,"name":"run","descriptor":"()V","attributes":[{"name":"Code","maxStack":1,"maxLocals":1,"codeLength":5}]}],
+ *  "attributes":[{"name":"SourceFile","length":2}]}
+ * </pre>
+ */
+class JsonLinesSink extends OutputSink {
+    private boolean arrayOpen, memberOpen;
+    private boolean firstElement, firstAttribute;
+
+    JsonLinesSink(OutputBuffer out) {
+        super(out);
+    }
+
+    @Override
+    void visitHeader(ParseContext context, int magic, int minorVersion, int majorVersion) {
+        this.context = context;
+        // 上一个类可能解析到一半失败, 记录已经丢弃, 这里的状态也要重新开始
+        arrayOpen = false;
+        memberOpen = false;
+        firstElement = false;
+        firstAttribute = false;
+        out.putAscii("{\"magic\":").putDecimal(magic & 0xFFFFFFFFL)
+                .putAscii(",\"minor\":").putDecimal(minorVersion)
+                .putAscii(",\"major\":").putDecimal(majorVersion);
+        openArray("constants");
+    }
+
+    @Override
+    void visitConstant(ConstantPool constantPool, int index) {
+        element();
+        int tag = constantPool.tag(index);
+        int offset = constantPool.offset(index);
+        ByteBuffer bytes = constantPool.bytes;
+        out.putAscii("{\"index\":").putDecimal(index).putAscii(",\"tag\":").putDecimal(tag);
+        switch (tag) {
+            case 1:
+                out.putAscii(",\"value\":").putJsonUtf8(constantPool, index);
+                break;
+            case 3:
+                out.putAscii(",\"value\":").putDecimal(Utils.read4Number(bytes, offset + 1));
+                break;
+            case 4:
+                putFloatingPoint(Float.intBitsToFloat(Utils.read4Number(bytes, offset + 1)));
+                break;
+            case 5:
+                out.putAscii(",\"value\":").putDecimal(Utils.read8Number(bytes, offset + 1));
+                break;
+            case 6:
+                putFloatingPoint(Double.longBitsToDouble(Utils.read8Number(bytes, offset + 1)));
+                break;
+            case 7:
+            case 8:
+            case 16:
+            case 19:
+            case 20:
+                out.putAscii(",\"ref\":").putDecimal(Utils.read2Number(bytes, offset + 1));
+                break;
+            case 9:
+            case 10:
+            case 11:
+                out.putAscii(",\"class\":").putDecimal(Utils.read2Number(bytes, offset + 1))
+                        .putAscii(",\"nameAndType\":").putDecimal(Utils.read2Number(bytes, offset + 3));
+                break;
+            case 12:
+                out.putAscii(",\"name\":").putDecimal(Utils.read2Number(bytes, offset + 1))
+                        .putAscii(",\"descriptor\":").putDecimal(Utils.read2Number(bytes, offset + 3));
+                break;
+            case 15:
+                out.putAscii(",\"kind\":").putDecimal(Utils.readUnsignedByte(bytes, offset + 1))
+                        .putAscii(",\"ref\":").putDecimal(Utils.read2Number(bytes, offset + 2));
+                break;
+            case 17:
+            case 18:
+                out.putAscii(",\"bootstrap\":").putDecimal(Utils.read2Number(bytes, offset + 1))
+                        .putAscii(",\"nameAndType\":").putDecimal(Utils.read2Number(bytes, offset + 3));
+                break;
+            default:
+                break;
+        }
+        out.put('}');
+    }
+
+    /**
+     * NaN 和 Infinity 不是合法的 JSON 数字, 输出为字符串
+     */
+    private void putFloatingPoint(double value) {
+        out.putAscii(",\"value\":");
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.put('"').putAscii(Double.toString(value)).put('"');
+        } else {
+            out.putAscii(Double.toString(value));
+        }
+    }
+
+    @Override
+    void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces) {
+        closeArray();
+        out.putAscii(",\"access\":").putDecimal(accessFlags)
+                .putAscii(",\"this\":").putJsonUtf8(context.constantPool, classNameIndex(thisClass))
+                .putAscii(",\"super\":").putJsonUtf8(context.constantPool, classNameIndex(superClass));
+        openArray("interfaces");
+        for (int index : interfaces) {
+            element();
+            out.putJsonUtf8(context.constantPool, classNameIndex(index));
+        }
+        closeArray();
+    }
+
+    @Override
+    void visitFields(int count) {
+        openArray("fields");
+    }
+
+    @Override
+    boolean visitField(int accessFlags, int nameIndex, int descriptorIndex) {
+        openMember(accessFlags, nameIndex, descriptorIndex);
+        return true;
+    }
+
+    @Override
+    void visitMethods(int count) {
+        openArray("methods");
+    }
+
+    @Override
+    boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex) {
+        openMember(accessFlags, nameIndex, descriptorIndex);
+        return true;
+    }
+
+    private void openMember(int accessFlags, int nameIndex, int descriptorIndex) {
+        closeMember();
+        element();
+        out.putAscii("{\"access\":").putDecimal(accessFlags)
+                .putAscii(",\"name\":").putJsonUtf8(context.constantPool, nameIndex)
+                .putAscii(",\"descriptor\":").putJsonUtf8(context.constantPool, descriptorIndex)
+                .putAscii(",\"attributes\":[");
+        memberOpen = true;
+        firstAttribute = true;
+    }
+
+    @Override
+    void visitCode(CodeInfo code) {
+        attributeElement();
+        out.putAscii("{\"name\":\"Code\",\"maxStack\":").putDecimal(code.maxStack)
+                .putAscii(",\"maxLocals\":").putDecimal(code.maxLocals)
+                .putAscii(",\"codeLength\":").putDecimal(code.codeLength)
+                .put('}');
+    }
+
+    @Override
+    void visitClassAttributes(int count) {
+        openArray("attributes");
+    }
+
+    @Override
+    void visitAttribute(int nameIndex, int offset, int length) {
+        attributeElement();
+        out.putAscii("{\"name\":").putJsonUtf8(context.constantPool, nameIndex)
+                .putAscii(",\"length\":").putDecimal(length)
+                .put('}');
+    }
+
+    private void attributeElement() {
+        if (memberOpen) {
+            if (!firstAttribute) {
+                out.put(',');
+            }
+            firstAttribute = false;
+        } else {
+            element();
+        }
+    }
+
+    @Override
+    void visitEnd() {
+        closeArray();
+        out.putAscii("}\n");
+        out.endRecord();
+    }
+
+    private void openArray(String name) {
+        closeArray();
+        out.putAscii(",\"").putAscii(name).putAscii("\":[");
+        arrayOpen = true;
+        firstElement = true;
+    }
+
+    private void closeArray() {
+        closeMember();
+        if (arrayOpen) {
+            out.put(']');
+            arrayOpen = false;
+        }
+    }
+
+    private void closeMember() {
+        if (memberOpen) {
+            out.putAscii("]}");
+            memberOpen = false;
+        }
+    }
+
+    private void element() {
+        if (!firstElement) {
+            out.put(',');
+        }
+        firstElement = false;
+    }
+}
+
+/**
+ * 紧凑的二进制格式, 每个类一条以长度开头的记录, 数都是大端序:
+ * <pre>
+ * class_record {
+ *     u4     record_length;  // 之后的字节数
+ *     u2     minor_version;
+ *     u2     major_version;
+ *     u2     constant_pool_count;
+ *     u2     access_flags;
+ *     utf8   this_class;
+ *     utf8   super_class;
+ *     u2     interfaces_count;
+ *     utf8   interfaces[interfaces_count];
+ *     u2     fields_count;
+ *     member fields[fields_count];
+ *     u2     methods_count;
+ *     member methods[methods_count];
+ *     u2     attributes_count;
+ *     attr   attributes[attributes_count];
+ * }
+ * member {
+ *     u2   access_flags;
+ *     utf8 name;
+ *     utf8 descriptor;
+ *     u2   attributes_count;
+ *     attr attributes[attributes_count];
+ * }
+ * attr {
+ *     utf8 name;
+ *     u4   length;           // name 为 "Code" 时为 code_length, 之后紧跟 u2 max_stack, u2 max_locals
+ * }
+ * utf8 {
+ *     u2 length;             // 0xFFFF 表示没有
+ *     u1 bytes[length];      // Modified UTF-8, 和类文件中的相同
+ * }
+ * </pre>
+ * 没有解析的部分数量为 0
+ */
+class BinarySink extends OutputSink {
+    private static final int CLASS = 1, FIELDS = 2, METHODS = 3, ATTRIBUTES = 4, END = 5;
+
+    private int recordStart;
+    private int section;
+    private int sectionCountPosition, sectionCount;
+    private int attributeCountPosition, attributeCount;
+
+    BinarySink(OutputBuffer out) {
+        super(out);
+    }
+
+    @Override
+    void visitHeader(ParseContext context, int magic, int minorVersion, int majorVersion) {
+        this.context = context;
+        recordStart = out.position();
+        out.putU4(0).putU2(minorVersion).putU2(majorVersion);
+        section = 0;
+        attributeCountPosition = -1;
+    }
+
+    @Override
+    void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces) {
+        out.putU2(context.constantPool.poolCount).putU2(accessFlags)
+                .putUtf8(context.constantPool, classNameIndex(thisClass))
+                .putUtf8(context.constantPool, classNameIndex(superClass))
+                .putU2(interfaces.length);
+        for (int index : interfaces) {
+            out.putUtf8(context.constantPool, classNameIndex(index));
+        }
+        section = CLASS;
+    }
+
+    /**
+     * 进入下一个部分, 中间跳过的部分写入数量 0
+     */
+    private void advanceTo(int next) {
+        endMember();
+        if (section >= FIELDS) {
+            out.patchU2(sectionCountPosition, sectionCount);
+        }
+        while (++section < next) {
+            out.putU2(0);
+        }
+        if (next < END) {
+            sectionCountPosition = out.position();
+            sectionCount = 0;
+            out.putU2(0);
+        }
+    }
+
+    @Override
+    void visitFields(int count) {
+        advanceTo(FIELDS);
+    }
+
+    @Override
+    boolean visitField(int accessFlags, int nameIndex, int descriptorIndex) {
+        beginMember(accessFlags, nameIndex, descriptorIndex);
+        return true;
+    }
+
+    @Override
+    void visitMethods(int count) {
+        advanceTo(METHODS);
+    }
+
+    @Override
+    boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex) {
+        beginMember(accessFlags, nameIndex, descriptorIndex);
+        return true;
+    }
+
+    private void beginMember(int accessFlags, int nameIndex, int descriptorIndex) {
+        endMember();
+        sectionCount++;
+        out.putU2(accessFlags)
+                .putUtf8(context.constantPool, nameIndex)
+                .putUtf8(context.constantPool, descriptorIndex);
+        attributeCountPosition = out.position();
+        attributeCount = 0;
+        out.putU2(0);
+    }
+
+    private void endMember() {
+        if (attributeCountPosition >= 0) {
+            out.patchU2(attributeCountPosition, attributeCount);
+            attributeCountPosition = -1;
+        }
+    }
+
+    @Override
+    void visitCode(CodeInfo code) {
+        attributeCount++;
+        out.putU2(4).putAscii("Code").putU4(code.codeLength).putU2(code.maxStack).putU2(code.maxLocals);
+    }
+
+    @Override
+    void visitClassAttributes(int count) {
+        advanceTo(ATTRIBUTES);
+    }
+
+    @Override
+    void visitAttribute(int nameIndex, int offset, int length) {
+        if (attributeCountPosition >= 0) {
+            attributeCount++;
+        } else {
+            sectionCount++;
+        }
+        out.putUtf8(context.constantPool, nameIndex).putU4(length);
+    }
+
+    @Override
+    void visitEnd() {
+        if (section < CLASS) {
+            return;
+        }
+        advanceTo(END);
+        out.patchU4(recordStart, out.position() - recordStart - 4);
+        out.endRecord();
+    }
+}
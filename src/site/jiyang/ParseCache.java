@@ -0,0 +1,307 @@
+package site.jiyang;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 磁盘上的解析结果缓存, 以类文件内容的 SHA-256 为 key, 保存 {@link BinarySink} 格式的记录.
+ * 解析选项不同时记录的内容不同, 所以每种选项使用单独的目录:
+ * <pre>
+ * directory/v1/options/ab/cdef...  // options 为 {@link ParseOptions} 的十六进制, ab 为 key 的前两位
+ * directory/v1/options/index       // 每行一个类文件, 以 tab 分隔: key 最后访问时间 版本 位置
+ * </pre>
+ * 索引在打开时读入内存, 同一个位置上类文件的版本({@link ClassInput#stamp()})没有变化时直接按索引中的 key 读取记录,
+ * 不读取类文件也不计算 SHA-256; 变化了的类文件再读取内容计算 key. 命中时只在内存中更新最后访问时间,
+ * {@link #close()} 时写回索引. 缓存的总大小超过上限时按最后访问时间淘汰最久没有用到的记录.
+ * 多个线程以及多个进程可以同时使用同一个目录, 多个进程同时写回索引时只保留最后一个, 其他进程的新条目下次重新计算 key
+ * <p>
+ * 命中的类文件没有解析, 所以不计入 {@link ParseMetrics}; 未命中时的解析照常统计
+ */
+final class ParseCache implements Closeable {
+    /**
+     * 记录格式变化时修改, 旧的缓存不再命中
+     */
+    private static final String FORMAT_VERSION = "v1";
+    private static final String INDEX = "index";
+
+    private final Path root;
+    private final int options;
+    private final long maxBytes;
+    private final AtomicLong size = new AtomicLong();
+    private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+    /**
+     * 以 {@link ClassInput#location()} 为 key 的索引, 每个位置只保留最后一个版本
+     */
+    private final ConcurrentHashMap<String, Source> sources = new ConcurrentHashMap<>();
+    /**
+     * 这次使用缓存的时间, 作为命中的记录的最后访问时间
+     */
+    private final long now = System.currentTimeMillis();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    /**
+     * 索引中的一个类文件
+     */
+    private static final class Source {
+        final String key;
+        final String stamp;
+        volatile long lastUsed;
+
+        Source(String key, String stamp, long lastUsed) {
+            this.key = key;
+            this.stamp = stamp;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * @param options  解析的部分, 见 {@link ParseOptions}
+     * @param maxBytes 缓存文件的总大小上限
+     */
+    ParseCache(File directory, int options, long maxBytes) throws IOException {
+        this.root = directory.toPath().resolve(FORMAT_VERSION).resolve(Integer.toHexString(options));
+        this.options = options;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(ParseCache::isRecord).forEach(file -> size.addAndGet(file.toFile().length()));
+        }
+        readIndex();
+        if (size.get() > maxBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * 类文件对应的记录, 先按位置和版本查找索引, 不在索引中, 版本变化或者记录已经被淘汰时再读取类文件
+     */
+    byte[] record(ClassInput input) throws IOException {
+        String location = input.location();
+        String stamp = input.stamp();
+        Source source = sources.get(location);
+        if (source != null && source.stamp.equals(stamp)) {
+            byte[] record = read(file(source.key));
+            if (record != null) {
+                hits.increment();
+                source.lastUsed = now;
+                return record;
+            }
+        }
+        ByteBuffer bytes = input.read();
+        String key = Utils.sha256Hex(bytes);
+        byte[] record = record(key, bytes);
+        sources.put(location, new Source(key, stamp, now));
+        return record;
+    }
+
+    /**
+     * 类文件对应的记录, 没有缓存时解析并写入缓存
+     */
+    byte[] record(ByteBuffer bytes) {
+        return record(Utils.sha256Hex(bytes), bytes);
+    }
+
+    private byte[] record(String key, ByteBuffer bytes) {
+        Path file = file(key);
+        byte[] record = read(file);
+        if (record != null) {
+            hits.increment();
+            return record;
+        }
+        misses.increment();
+        record = encoders.get().encode(bytes, options);
+        write(file, record);
+        return record;
+    }
+
+    ClassSummary summary(ByteBuffer bytes) {
+        return ClassSummary.read(ByteBuffer.wrap(record(bytes)));
+    }
+
+    private Path file(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    /**
+     * @return 没有缓存或者记录不完整时返回 null
+     */
+    private static byte[] read(Path file) {
+        byte[] record;
+        try {
+            record = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (record.length < 4 || Utils.read4Number(ByteBuffer.wrap(record), 0) != record.length - 4) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * 先写入临时文件再重命名, 其他线程或进程不会读到写了一半的记录
+     */
+    private void write(Path file, byte[] record) {
+        try {
+            Path directory = file.getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            Files.write(temp, record);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (size.addAndGet(record.length) > maxBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * 按最后访问时间从旧到新删除记录, 直到总大小降到上限的 90% 以下
+     * 最后访问时间取记录文件的修改时间(写入的时间)和索引中的访问时间中较晚的一个
+     */
+    synchronized void trim() {
+        if (size.get() <= maxBytes) {
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(ParseCache::isRecord).forEach(path -> files.add(path.toFile()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, Long> lastUsed = new HashMap<>();
+        for (Source source : sources.values()) {
+            lastUsed.merge(source.key, source.lastUsed, Math::max);
+        }
+        long total = 0;
+        long[] lastModified = new long[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            Long used = lastUsed.get(file.getParentFile().getName() + file.getName());
+            lastModified[i] = Math.max(file.lastModified(), used == null ? 0 : used);
+            total += file.length();
+        }
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+        long target = maxBytes / 10 * 9;
+        Set<String> deleted = new HashSet<>();
+        for (int i = 0; i < order.length && total > target; i++) {
+            File file = files.get(order[i]);
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evictions.increment();
+                deleted.add(file.getParentFile().getName() + file.getName());
+            }
+        }
+        size.set(total);
+        sources.values().removeIf(source -> deleted.contains(source.key));
+    }
+
+    /**
+     * 正在写入的临时文件和索引不算在内
+     */
+    private static boolean isRecord(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path) && !name.endsWith(".tmp") && !name.equals(INDEX);
+    }
+
+    /**
+     * 索引不存在或者某一行不完整时忽略, 对应的类文件重新计算 key
+     */
+    private void readIndex() throws IOException {
+        Path index = root.resolve(INDEX);
+        if (!Files.exists(index)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4 || fields[0].length() != 64) {
+                    continue;
+                }
+                try {
+                    sources.put(fields[3], new Source(fields[0], fields[2], Long.parseLong(fields[1])));
+                } catch (NumberFormatException e) {
+                    // 忽略这一行
+                }
+            }
+        }
+    }
+
+    /**
+     * 写回索引, 同样先写入临时文件再重命名
+     */
+    @Override
+    public void close() throws IOException {
+        Path temp = Files.createTempFile(root, INDEX, ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Source> entry : sources.entrySet()) {
+                Source source = entry.getValue();
+                writer.write(source.key + "\t" + source.lastUsed + "\t" + source.stamp + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, root.resolve(INDEX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 把类文件编码为一条记录, 每个线程复用一个
+     */
+    private static final class Encoder {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private final BinarySink sink = new BinarySink(new OutputBuffer(Channels.newChannel(content)));
+
+        byte[] encode(ByteBuffer bytes, int options) {
+            content.reset();
+            try {
+                new ClassReader(bytes).accept(sink, options);
+                sink.out.flush();
+            } catch (RuntimeException | StackOverflowError e) {
+                sink.out.discardRecord();
+                throw e;
+            }
+            return content.toByteArray();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Cache: %d hits, %d misses, %d evictions, %.2f MB",
+                hits.sum(), misses.sum(), evictions.sum(), size.get() / (1024.0 * 1024.0));
+    }
+}
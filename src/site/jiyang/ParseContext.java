@@ -0,0 +1,79 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一个类文件的解析上下文
+ * 每个类各自持有, 解析过程中需要查找常量池的地方都通过它访问, 不再依赖全局的静态状态
+ */
+final class ParseContext {
+    final ByteBuffer bytes;
+    ConstantPool constantPool;
+
+    /**
+     * {@link ParseOptions} 中选项的组合
+     */
+    final int options;
+
+    /**
+     * 多个类共享的符号表, 为 null 时每个 Utf8 常量各自解码
+     */
+    final SymbolTable symbols;
+
+    ParseContext(ByteBuffer bytes) {
+        this(bytes, ParseOptions.ALL);
+    }
+
+    ParseContext(ByteBuffer bytes, int options) {
+        this(bytes, options, null);
+    }
+
+    ParseContext(ByteBuffer bytes, int options, SymbolTable symbols) {
+        this.bytes = bytes;
+        this.options = options;
+        this.symbols = symbols;
+    }
+
+    boolean has(int option) {
+        return (options & option) != 0;
+    }
+
+    /**
+     * 是否需要解析名为 name 的属性的内容
+     */
+    boolean decodeAttribute(int kind) {
+        return has(kind == AttributeKind.CODE ? ParseOptions.CODE : ParseOptions.ATTRIBUTES);
+    }
+
+    ConstantItem constantItem(int index) {
+        return constantPool.get(index);
+    }
+
+    /**
+     * index 处的 Utf8 常量的字符串值, 不是 Utf8 常量时返回 null
+     */
+    String utf8(int index) {
+        ConstantItem item = constantPool.get(index);
+        return item instanceof UTF8 ? ((UTF8) item).value() : null;
+    }
+
+    /**
+     * index 处的 Utf8 常量是否等于 value, 直接比较类文件中的字节, 不创建常量对象也不解码
+     */
+    boolean utf8Equals(int index, String value) {
+        if (index <= 0 || index >= constantPool.poolCount || constantPool.tag(index) != 1) {
+            return false;
+        }
+        int offset = constantPool.offset(index);
+        return ModifiedUtf8.equals(bytes, offset + 3, Utils.read2Number(bytes, offset + 1), value);
+    }
+
+    /**
+     * index 处的 CONSTANT_Class 表示的类名, 例如 java/lang/Object, 不是 CONSTANT_Class 时返回 null
+     */
+    String className(int index) {
+        ConstantItem item = constantPool.get(index);
+        return item instanceof CLASS ? utf8(((CLASS) item).index) : null;
+    }
+}
@@ -0,0 +1,304 @@
+package site.jiyang;
+
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 常驻的解析服务, 避免每次解析都启动一个新的 JVM 并且从解释执行开始
+ * 只监听 127.0.0.1, 每个连接一个线程, 所有连接共享一个 fork-join 线程池和一个 {@link ClassCache}.
+ * 请求和响应都是文本行, 一个请求一行, 参数用空格分隔; 响应最后一行以 ok 或者 error 开头, 之前的行是结果:
+ * <pre>
+ * ping                                         ok pong
+ * parse [--sections=...] paths...              每个类一行 JSON(见 {@link OutputSink}), 然后 ok 统计信息
+ * check [--sections=...] paths...              只解析, 解析失败的类各一行 failed, 然后 ok 统计信息
+ * diff old new                                 有差异的类(见 {@link ClassDiff}), 然后 ok 统计信息
+ * supers|subtypes|implementors class paths...  类名一行一个, 然后 ok 个数; 索引常驻内存, 类文件有变化时才重建
+ * metrics [on|off|reset]                       打开, 关闭或清空 {@link ParseMetrics}; 不带参数时输出各阶段的统计
+ * quit                                         关闭连接
+ * shutdown                                     停止服务
+ * </pre>
+ * 一个请求可以带多个路径, 在线程池中并行解析; 客户端也可以连续发送多个请求而不等待响应,
+ * 服务端按顺序处理, 已经读到的请求处理完之后才把积累的响应一起写出
+ */
+final class ParseDaemon implements Closeable {
+    static final int DEFAULT_PORT = 7878;
+    private static final String SECTIONS = "--sections=";
+    private static final long CACHE_BYTES = 256L * 1024 * 1024;
+    /**
+     * 最多常驻的继承关系索引个数, 超过时淘汰最久没有查询的
+     */
+    private static final int MAX_HIERARCHIES = 8;
+
+    private final ServerSocketChannel server;
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final ClassCache cache = new ClassCache(CACHE_BYTES);
+    /**
+     * 按请求中的路径列表保存建好的 {@link ClassHierarchy}, 按访问顺序排列, 访问时加锁
+     */
+    private final LinkedHashMap<List<String>, ResidentHierarchy> hierarchies = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService clients = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "parse-daemon-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 常驻的继承关系索引和建立时所有类文件的位置和版本
+     */
+    private static final class ResidentHierarchy {
+        final List<String> versions;
+        final ClassHierarchy hierarchy;
+
+        ResidentHierarchy(List<String> versions, ClassHierarchy hierarchy) {
+            this.versions = versions;
+            this.hierarchy = hierarchy;
+        }
+    }
+
+    ParseDaemon(int port) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * 把 paths 中的类文件解析 rounds 遍, 让解析代码在接受请求之前就完成 JIT 编译
+     */
+    BatchParser.Result warmUp(List<String> paths, int rounds) throws IOException {
+        BatchParser.Result result = null;
+        for (int i = 0; i < rounds; i++) {
+            result = new BatchParser(pool, ParseOptions.ALL).run(paths);
+        }
+        return result;
+    }
+
+    /**
+     * 接受连接直到收到 shutdown 请求或者被关闭
+     */
+    void serve() throws IOException {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                clients.execute(() -> handle(channel));
+            }
+        } catch (ClosedChannelException e) {
+            // shutdown
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (SocketChannel client = channel) {
+            client.socket().setTcpNoDelay(true);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+            OutputBuffer out = new OutputBuffer(client);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] args = line.trim().split("\\s+");
+                if ("quit".equals(args[0])) {
+                    break;
+                }
+                if ("shutdown".equals(args[0])) {
+                    println(out, "ok shutdown");
+                    out.flush();
+                    close();
+                    break;
+                }
+                try {
+                    execute(args, client, out);
+                } catch (Exception | StackOverflowError e) {
+                    out.discardRecord();
+                    println(out, "error " + e);
+                }
+                if (!reader.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // 客户端断开
+        }
+    }
+
+    private void execute(String[] args, SocketChannel channel, OutputBuffer out) throws IOException {
+        String command = args[0];
+        switch (command) {
+            case "ping":
+                println(out, "ok pong");
+                return;
+            case "parse":
+            case "check": {
+                int options = ParseOptions.ALL;
+                int first = 1;
+                if (args.length > first && args[first].startsWith(SECTIONS)) {
+                    options = ParseOptions.parse(args[first].substring(SECTIONS.length()));
+                    first++;
+                }
+                List<String> paths = paths(args, first);
+                BatchParser batchParser = new BatchParser(pool, options);
+                if ("parse".equals(command)) {
+                    // 每个线程直接把 JSON 写入 channel, 先写出之前积累的响应
+                    out.flush();
+                    batchParser.output("jsonl", channel);
+                } else {
+                    batchParser.classCache(cache);
+                }
+                BatchParser.Result result = batchParser.run(paths);
+                for (BatchParser.Failure failure : result.failures) {
+                    println(out, "failed " + failure);
+                }
+                println(out, "ok " + result);
+                return;
+            }
+            case "diff": {
+                if (args.length != 3) {
+                    throw new IllegalArgumentException("Must pass old and new path.");
+                }
+                ClassDiff.Result result = new BatchParser(pool, ParseOptions.ALL)
+                        .diff(Collections.singletonList(args[1]), Collections.singletonList(args[2]));
+                for (BatchParser.Failure failure : result.failures) {
+                    println(out, "failed " + failure);
+                }
+                for (ClassDiff diff : result.changed) {
+                    println(out, diff.toString());
+                }
+                println(out, "ok " + result);
+                return;
+            }
+            case "supers":
+            case "subtypes":
+            case "implementors": {
+                if (args.length < 3) {
+                    throw new IllegalArgumentException("Must pass class name and paths.");
+                }
+                List<BatchParser.Failure> failures = new ArrayList<>();
+                ClassHierarchy hierarchy = hierarchy(paths(args, 2), failures);
+                for (BatchParser.Failure failure : failures) {
+                    println(out, "failed " + failure);
+                }
+                int id = hierarchy.id(args[1]);
+                if (id < 0) {
+                    println(out, "error Not found class " + args[1]);
+                    return;
+                }
+                int[] result = "supers".equals(command) ? hierarchy.superclassChain(id)
+                        : "subtypes".equals(command) ? hierarchy.subtypes(id) : hierarchy.implementors(id);
+                for (String name : hierarchy.names(result)) {
+                    println(out, name);
+                }
+                println(out, "ok " + result.length);
+                return;
+            }
+            case "metrics": {
+                String action = args.length > 1 ? args[1] : "show";
+                switch (action) {
+                    case "on":
+                    case "off":
+                        ParseMetrics.setEnabled("on".equals(action));
+                        break;
+                    case "reset":
+                        ParseMetrics.reset();
+                        break;
+                    case "show":
+                        println(out, ParseMetrics.report());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown metrics action: " + action);
+                }
+                println(out, "ok metrics " + (ParseMetrics.isEnabled() ? "on" : "off"));
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    /**
+     * 路径列表相同并且所有类文件的位置和版本({@link ClassInput#stamp()})都没有变化时使用常驻的索引,
+     * 否则在共享的线程池中重新建立. 同时有多个请求重建同一个索引时, 后建好的覆盖先建好的
+     */
+    private ClassHierarchy hierarchy(List<String> paths, List<BatchParser.Failure> failures) throws IOException {
+        // 先取版本再建立索引, 建立过程中有变化的类文件在下次查询时会触发重建
+        List<String> versions = versions(paths);
+        ResidentHierarchy resident;
+        synchronized (hierarchies) {
+            resident = hierarchies.get(paths);
+        }
+        if (resident != null && resident.versions.equals(versions)) {
+            return resident.hierarchy;
+        }
+        ClassHierarchy hierarchy = ClassHierarchy.build(pool, paths, failures);
+        synchronized (hierarchies) {
+            hierarchies.put(paths, new ResidentHierarchy(versions, hierarchy));
+            Iterator<List<String>> eldest = hierarchies.keySet().iterator();
+            while (hierarchies.size() > MAX_HIERARCHIES) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * paths 中所有类文件的位置和版本, 按 classpath 的顺序; 只读取目录和 jar 包的中央目录, 不读取类文件的内容
+     */
+    private static List<String> versions(List<String> paths) throws IOException {
+        List<ClassInput> inputs = new ArrayList<>();
+        List<Closeable> opened = new ArrayList<>();
+        try {
+            for (String path : paths) {
+                ClassInput.collect(path, inputs, opened);
+            }
+            List<String> versions = new ArrayList<>(inputs.size());
+            for (ClassInput input : inputs) {
+                versions.add(input.location() + "@" + input.stamp());
+            }
+            return versions;
+        } finally {
+            for (Closeable closeable : opened) {
+                closeable.close();
+            }
+        }
+    }
+
+    private static List<String> paths(String[] args, int first) {
+        if (first >= args.length) {
+            throw new IllegalArgumentException("Must pass directories, jars or classpath.");
+        }
+        return Arrays.asList(Arrays.copyOfRange(args, first, args.length));
+    }
+
+    private static void println(OutputBuffer out, String line) {
+        out.putBytes(line.getBytes(StandardCharsets.UTF_8)).put('\n');
+        out.endRecord();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        pool.shutdown();
+        clients.shutdown();
+    }
+}
@@ -0,0 +1,185 @@
+package site.jiyang;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按阶段统计 {@link BytecodeParser} 和 {@link ClassReader} 解析类文件的耗时, 读取的字节数和分配的内存
+ * 各个线程的结果累加到 {@link LongAdder} 中, 多个线程同时更新时不会竞争同一个计数器.
+ * 同时每个阶段发出一个 JFR 事件({@link PhaseEvent}), 运行环境没有 jdk.jfr 时只统计不发出事件.
+ * 可以在运行时打开和关闭({@link #setEnabled(boolean)}, 或者启动时 -Dbytecodeparser.metrics=true),
+ * 关闭时 {@link #recorder()} 返回 null, 解析时每个阶段只多一次 null 判断
+ */
+final class ParseMetrics {
+    static final int MAGIC_NUMBER = 0;
+    static final int VERSION = 1;
+    static final int CONSTANT_POOL = 2;
+    static final int ACCESS_FLAGS = 3;
+    static final int CLASS_INDEX = 4;
+    static final int INTERFACES = 5;
+    static final int FIELDS = 6;
+    static final int METHODS = 7;
+    static final int ATTRIBUTES = 8;
+
+    private static final String[] PHASE_NAMES = {
+            "MagicNumber", "Version", "ConstantPool", "AccessFlags", "ClassIndex",
+            "Interfaces", "Fields", "Methods", "Attributes",
+    };
+
+    private static final LongAdder[] COUNTS = adders();
+    private static final LongAdder[] NANOS = adders();
+    private static final LongAdder[] BYTES = adders();
+    private static final LongAdder[] ALLOCATED = adders();
+
+    private static final ThreadLocal<Recorder> RECORDERS = ThreadLocal.withInitial(Recorder::new);
+
+    private static volatile boolean enabled = Boolean.getBoolean("bytecodeparser.metrics");
+
+    private ParseMetrics() {
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[PHASE_NAMES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * 查找 JFR 和线程分配统计的开销较大, 放在单独的类中, 第一次打开统计时才初始化
+     */
+    private static final class Handles {
+        /**
+         * 当前线程已经分配的字节数: com.sun.management.ThreadMXBean 不在 Java 8 的公开 API 中, 所以通过 MethodHandle 调用.
+         * 形式为 (long threadId)long, 不支持时为 null
+         */
+        static final MethodHandle ALLOCATED_BYTES = allocatedBytes();
+        /**
+         * {@link PhaseEvent#emit(String, long, long, long)}, 没有 jdk.jfr 时为 null
+         */
+        static final MethodHandle EMIT = emitter();
+    }
+
+    private static MethodHandle allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            if (!type.isInstance(bean)) {
+                return null;
+            }
+            type.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(bean, true);
+            return MethodHandles.publicLookup()
+                    .findVirtual(type, "getThreadAllocatedBytes", MethodType.methodType(long.class, long.class))
+                    .bindTo(bean);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle emitter() {
+        try {
+            Class<?> type = Class.forName("site.jiyang.PhaseEvent");
+            return MethodHandles.lookup().findStatic(type, "emit",
+                    MethodType.methodType(void.class, String.class, long.class, long.class, long.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        ParseMetrics.enabled = enabled;
+    }
+
+    static void reset() {
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            COUNTS[i].reset();
+            NANOS[i].reset();
+            BYTES[i].reset();
+            ALLOCATED[i].reset();
+        }
+    }
+
+    /**
+     * 开始解析一个类文件, 关闭时返回 null
+     */
+    static Recorder recorder() {
+        return enabled ? RECORDERS.get().start() : null;
+    }
+
+    /**
+     * 每个阶段一行: 次数, 总耗时, 平均耗时, 读取的字节数, 吞吐量, 分配的内存
+     */
+    static String report() {
+        StringBuilder sb = new StringBuilder(String.format("%-14s %10s %12s %10s %14s %10s %14s",
+                "phase", "count", "total ms", "avg ns", "bytes", "MB/s", "allocated"));
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            long count = COUNTS[i].sum();
+            long nanos = NANOS[i].sum();
+            long bytes = BYTES[i].sum();
+            sb.append('\n').append(String.format("%-14s %10d %12.2f %10d %14d %10.1f %14s",
+                    PHASE_NAMES[i], count, nanos / 1e6, count == 0 ? 0 : nanos / count, bytes,
+                    nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) * 1e9 / nanos,
+                    Handles.ALLOCATED_BYTES == null ? "-" : String.valueOf(ALLOCATED[i].sum())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一个线程的计时器, 记录上一个阶段结束时的时间和已分配的字节数
+     */
+    static final class Recorder {
+        private final long threadId = Thread.currentThread().getId();
+        private long time;
+        private long allocated;
+
+        private Recorder start() {
+            allocated = allocatedBytes();
+            time = System.nanoTime();
+            return this;
+        }
+
+        /**
+         * 结束一个阶段, 下一个阶段从这里开始; 统计和发出事件本身的开销不计入下一个阶段
+         *
+         * @param bytes 这个阶段读取的类文件字节数
+         */
+        void phase(int phase, long bytes) {
+            long nanos = System.nanoTime() - time;
+            long allocatedNow = allocatedBytes();
+            long allocatedBytes = allocatedNow - allocated;
+            COUNTS[phase].increment();
+            NANOS[phase].add(nanos);
+            BYTES[phase].add(bytes);
+            ALLOCATED[phase].add(allocatedBytes);
+            if (Handles.EMIT != null) {
+                try {
+                    Handles.EMIT.invokeExact(PHASE_NAMES[phase], nanos, bytes, allocatedBytes);
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            start();
+        }
+
+        private long allocatedBytes() {
+            if (Handles.ALLOCATED_BYTES == null) {
+                return 0;
+            }
+            try {
+                return (long) Handles.ALLOCATED_BYTES.invokeExact(threadId);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
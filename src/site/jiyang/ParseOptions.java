@@ -0,0 +1,83 @@
+package site.jiyang;
+
+
+/**
+ * 选择需要解析的部分, 各个选项按位组合
+ * 魔数, 版本, 常量池, 访问标志, 本类和父类总是会解析; 没有选择的属性根据 attribute_length 直接跳过,
+ * 之后的部分都不需要时立即结束解析
+ */
+final class ParseOptions {
+    static final int INTERFACES = 1;
+    static final int FIELDS = 1 << 1;
+    static final int METHODS = 1 << 2;
+    /**
+     * 字段, 方法, Code 以及类本身的属性(Code 除外)的内容
+     */
+    static final int ATTRIBUTES = 1 << 3;
+    static final int CODE = 1 << 4;
+    /**
+     * 类本身的属性表
+     */
+    static final int CLASS_ATTRIBUTES = 1 << 5;
+    /**
+     * 解析完常量池后立即解码所有常量, 默认在访问时才解码
+     */
+    static final int EAGER_CONSTANTS = 1 << 6;
+
+    static final int ALL = INTERFACES | FIELDS | METHODS | ATTRIBUTES | CODE | CLASS_ATTRIBUTES;
+    /**
+     * 只需要类的继承关系
+     */
+    static final int HIERARCHY = INTERFACES;
+    /**
+     * 只需要字段和方法的名称和描述符
+     */
+    static final int MEMBERS = INTERFACES | FIELDS | METHODS;
+
+    private ParseOptions() {
+    }
+
+    /**
+     * 解析逗号分隔的选项名, 例如 "interfaces,methods,code", 也可以是 "all", "hierarchy", "members"
+     */
+    static int parse(String names) {
+        int options = 0;
+        for (String name : names.split(",")) {
+            switch (name.trim()) {
+                case "interfaces":
+                    options |= INTERFACES;
+                    break;
+                case "fields":
+                    options |= FIELDS;
+                    break;
+                case "methods":
+                    options |= METHODS;
+                    break;
+                case "attributes":
+                    options |= ATTRIBUTES;
+                    break;
+                case "code":
+                    options |= CODE;
+                    break;
+                case "class-attributes":
+                    options |= CLASS_ATTRIBUTES;
+                    break;
+                case "eager-constants":
+                    options |= EAGER_CONSTANTS;
+                    break;
+                case "all":
+                    options |= ALL;
+                    break;
+                case "hierarchy":
+                    options |= HIERARCHY;
+                    break;
+                case "members":
+                    options |= MEMBERS;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parse option: " + name);
+            }
+        }
+        return options;
+    }
+}
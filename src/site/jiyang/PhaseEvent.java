@@ -0,0 +1,57 @@
+package site.jiyang;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 解析一个类文件中一个阶段的 JFR 事件, 在 JDK Mission Control 中按阶段统计
+ * 只有打开 {@link ParseMetrics} 时才通过反射加载, 没有 jdk.jfr 的运行环境中不会用到这个类
+ */
+@Name("site.jiyang.ParsePhase")
+@Label("Parse Phase")
+@Category("Bytecode Parser")
+@Description("One phase of parsing a class file")
+@StackTrace(false)
+final class PhaseEvent extends Event {
+    /**
+     * 只用来检查这种事件是否在录制中
+     */
+    private static final PhaseEvent TYPE = new PhaseEvent();
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+
+    @Label("Bytes Consumed")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    /**
+     * 由 {@link ParseMetrics} 通过 MethodHandle 调用, 没有在录制时不创建事件
+     */
+    static void emit(String phase, long nanos, long bytes, long allocated) {
+        if (!TYPE.isEnabled()) {
+            return;
+        }
+        PhaseEvent event = new PhaseEvent();
+        event.phase = phase;
+        event.nanos = nanos;
+        event.bytes = bytes;
+        event.allocated = allocated;
+        event.commit();
+    }
+}
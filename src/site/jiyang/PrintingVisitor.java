@@ -0,0 +1,130 @@
+package site.jiyang;
+
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * 把类文件的每个部分输出为可读的文本
+ */
+class PrintingVisitor extends ClassVisitor {
+    private final PrintStream out;
+    private ParseContext context;
+
+    PrintingVisitor(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    void visitHeader(ParseContext context, int magic, int minorVersion, int majorVersion) {
+        this.context = context;
+        printSectionDivider("Magic Number");
+        out.println("MagicNumber{" +
+                "b1=" + Integer.toHexString(magic >>> 24).toUpperCase() +
+                ", b2=" + Integer.toHexString((magic >>> 16) & 0xFF).toUpperCase() +
+                ", b3=" + Integer.toHexString((magic >>> 8) & 0xFF).toUpperCase() +
+                ", b4=" + Integer.toHexString(magic & 0xFF).toUpperCase() +
+                '}');
+
+        printSectionDivider("Version");
+        out.println("Version{" +
+                "minorVersion=" + minorVersion +
+                ", majorVersion=" + majorVersion +
+                '}');
+
+        printSectionDivider("Constant Pool");
+    }
+
+    @Override
+    void visitConstant(ConstantPool constantPool, int index) {
+        out.println("  #" + index + " " + constantPool.get(index));
+    }
+
+    @Override
+    void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces) {
+        printSectionDivider("Access Flags");
+        out.println("AccessFlags{" +
+                "accessFlags=" + accessFlags +
+                "} -> " + AccessFlags.printAccess(accessFlags));
+
+        printSectionDivider("This class");
+        out.println(classIndex(thisClass));
+
+        printSectionDivider("Super class");
+        out.println(classIndex(superClass));
+
+        printSectionDivider("Interfaces");
+        out.println("Interfaces{" +
+                "interfaceCount=" + interfaces.length +
+                ", indexs=" + Arrays.toString(interfaces) +
+                '}');
+    }
+
+    private String classIndex(int classInfoIndex) {
+        ConstantItem item = context.constantItem(classInfoIndex);
+        if (!(item instanceof CLASS)) {
+            return "ClassIndex{classInfoIndex=" + classInfoIndex + '}';
+        }
+        int nameIndex = ((CLASS) item).index;
+        return "ClassIndex{" +
+                "classInfoIndex=" + classInfoIndex +
+                " -> " + nameIndex + " -> " + context.utf8(nameIndex) +
+                '}';
+    }
+
+    @Override
+    void visitFields(int count) {
+        printSectionDivider("Fields");
+        out.println("count=" + count);
+    }
+
+    @Override
+    boolean visitField(int accessFlags, int nameIndex, int descriptorIndex) {
+        printMember(accessFlags, nameIndex, descriptorIndex);
+        return true;
+    }
+
+    @Override
+    void visitMethods(int count) {
+        printSectionDivider("Methods");
+        out.println("count=" + count);
+    }
+
+    @Override
+    boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex) {
+        printMember(accessFlags, nameIndex, descriptorIndex);
+        return true;
+    }
+
+    private void printMember(int accessFlags, int nameIndex, int descriptorIndex) {
+        out.println("  Entity{" +
+                "accessFlag=" + FieldOrMethod.Entity.accessFlagReadable(accessFlags) +
+                ", nameIndex=" + nameIndex +
+                ", name=" + context.utf8(nameIndex) +
+                ", descriptorIndex=" + descriptorIndex +
+                ", descriptor=" + context.utf8(descriptorIndex) +
+                '}');
+    }
+
+    @Override
+    void visitCode(CodeInfo code) {
+        out.println("    " + code);
+    }
+
+    @Override
+    void visitClassAttributes(int count) {
+        printSectionDivider("This class attribute_info");
+        out.println("count=" + count);
+    }
+
+    @Override
+    void visitAttribute(int nameIndex, int offset, int length) {
+        AttributeInfo attributeInfo = new AttributeInfo();
+        attributeInfo.parse(context, context.bytes, offset - 6);
+        out.println("    " + attributeInfo);
+    }
+
+    private void printSectionDivider(String name) {
+        out.println("== " + name + " ======================================");
+    }
+}
@@ -0,0 +1,404 @@
+package site.jiyang;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 根据指令和异常表重新计算每个方法实际需要的 max_stack 和 max_locals, 和 Code 属性中声明的值比较
+ * <p>
+ * 从方法入口和每个异常处理器(栈中只有异常对象)出发沿控制流传播操作数栈深度:
+ * 每条指令的栈变化查 {@link Instruction#stackEffect(int)}, 字段访问和方法调用根据常量池中的描述符计算.
+ * 同一条指令从不同路径到达时栈深度必须相同, 否则作为错误报告.
+ * jsr 的目标按跳转处理, jsr 之后的指令按 ret 返回后栈深度恢复处理
+ */
+final class StackAnalyzer {
+    private static final int ACC_STATIC = 0x0008;
+
+    static final class Report {
+        final String method;
+        final int declaredMaxStack, declaredMaxLocals;
+        final int maxStack, maxLocals;
+        /**
+         * 无法分析时的原因, 例如栈下溢或者跳转到指令中间
+         */
+        final String error;
+
+        Report(String method, CodeInfo code, int maxStack, int maxLocals, String error) {
+            this.method = method;
+            this.declaredMaxStack = code.maxStack;
+            this.declaredMaxLocals = code.maxLocals;
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+            this.error = error;
+        }
+
+        /**
+         * 实际需要的比声明的多, 这样的方法无法通过校验
+         */
+        boolean underDeclared() {
+            return error == null && (maxStack > declaredMaxStack || maxLocals > declaredMaxLocals);
+        }
+
+        /**
+         * 声明的比实际需要的多, 可以通过校验, 只是浪费了栈帧空间
+         */
+        boolean overDeclared() {
+            return error == null && !underDeclared() && (maxStack < declaredMaxStack || maxLocals < declaredMaxLocals);
+        }
+
+        @Override
+        public String toString() {
+            String kind = error != null ? "ERROR" : underDeclared() ? "UNDER" : overDeclared() ? "OVER" : "OK";
+            return kind + " " + method +
+                    " declared stack=" + declaredMaxStack + " locals=" + declaredMaxLocals +
+                    (error != null ? ": " + error : ", computed stack=" + maxStack + " locals=" + maxLocals);
+        }
+    }
+
+    static final class Result {
+        final long methods;
+        final List<Report> mismatches;
+        final List<BatchParser.Failure> failures;
+        final long elapsedNanos;
+
+        Result(long methods, List<Report> mismatches, List<BatchParser.Failure> failures, long elapsedNanos) {
+            this.methods = methods;
+            this.mismatches = mismatches;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            long under = mismatches.stream().filter(Report::underDeclared).count();
+            long over = mismatches.stream().filter(Report::overDeclared).count();
+            return String.format("Analyzed %d methods in %.1f ms: %d under-declared, %d over-declared, %d errors, %d failed classes",
+                    methods, elapsedNanos / 1e6, under, over, mismatches.size() - under - over, failures.size());
+        }
+    }
+
+    private StackAnalyzer() {
+    }
+
+    /**
+     * 并行分析 paths 中所有类文件的方法: 类由 {@link BatchParser} 的 fork-join 线程池分配,
+     * 一个类中的多个方法再拆成子任务, 空闲的线程可以窃取大类中的方法
+     */
+    static Result analyze(List<String> paths) throws IOException {
+        ConcurrentLinkedQueue<Report> mismatches = new ConcurrentLinkedQueue<>();
+        LongAdder methods = new LongAdder();
+        BatchParser batchParser = new BatchParser(ParseOptions.METHODS | ParseOptions.CODE);
+        try {
+            BatchParser.Result result = batchParser.accept(paths, () -> new ClassVisitor() {
+                private ParseContext context;
+                private String className;
+                private String method;
+                private boolean isStatic;
+                private List<RecursiveAction> tasks;
+
+                @Override
+                void visitHeader(ParseContext context, int magic, int minorVersion, int majorVersion) {
+                    this.context = context;
+                    this.tasks = new ArrayList<>();
+                }
+
+                @Override
+                void visitClass(int accessFlags, int thisClass, int superClass, int[] interfaces) {
+                    className = context.className(thisClass);
+                }
+
+                @Override
+                boolean visitMethod(int accessFlags, int nameIndex, int descriptorIndex) {
+                    method = className + "." + context.utf8(nameIndex) + context.utf8(descriptorIndex);
+                    isStatic = (accessFlags & ACC_STATIC) != 0;
+                    return true;
+                }
+
+                @Override
+                void visitCode(CodeInfo code) {
+                    ParseContext context = this.context;
+                    String method = this.method;
+                    int parameterSlots = parameterSlots(method) + (isStatic ? 0 : 1);
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            Report report = analyze(context, code, method, parameterSlots);
+                            methods.increment();
+                            if (report.error != null || report.underDeclared() || report.overDeclared()) {
+                                mismatches.add(report);
+                            }
+                        }
+                    });
+                }
+
+                @Override
+                void visitEnd() {
+                    // 等待子任务时当前线程可能去执行其他类的任务并复用这个 visitor, 所以先取出本类的任务
+                    List<RecursiveAction> classTasks = tasks;
+                    tasks = new ArrayList<>();
+                    ForkJoinTask.invokeAll(classTasks);
+                }
+            });
+            return new Result(methods.sum(), new ArrayList<>(mismatches), result.failures, result.elapsedNanos);
+        } finally {
+            batchParser.shutdown();
+        }
+    }
+
+    /**
+     * method 形如 "类名.方法名描述符", 计算描述符中参数占用的 slot 数
+     */
+    private static int parameterSlots(String method) {
+        int start = method.indexOf('(');
+        ByteBuffer descriptor = ByteBuffer.wrap(method.substring(start).getBytes(StandardCharsets.UTF_8));
+        return descriptorSlots(descriptor, 0, descriptor.limit()) >>> 8;
+    }
+
+    /**
+     * 分析一个方法
+     *
+     * @param parameterSlots 参数(包括非静态方法的 this)占用的局部变量 slot 数
+     */
+    static Report analyze(ParseContext context, CodeInfo code, String method, int parameterSlots) {
+        int codeLength = code.codeLength;
+        InstructionCursor cursor = code.cursor();
+        BitSet starts = new BitSet(codeLength);
+        while (cursor.next()) {
+            starts.set(cursor.pc());
+        }
+        if (!cursor.atEnd()) {
+            return error(method, code, "undefined opcode at " + (cursor.pc() + cursor.length()));
+        }
+
+        int[] depths = new int[codeLength];
+        Arrays.fill(depths, -1);
+        int[] worklist = new int[16];
+        int pending = 0;
+        depths[0] = 0;
+        worklist[pending++] = 0;
+        for (CodeInfo.ExceptionTable handler : code.exceptionTable) {
+            if (!starts.get(handler.handlePc)) {
+                return error(method, code, "handler is not an instruction at " + handler.handlePc);
+            }
+            // 进入异常处理器时操作数栈中只有异常对象
+            if (depths[handler.handlePc] < 0) {
+                depths[handler.handlePc] = 1;
+                if (pending == worklist.length) {
+                    worklist = Arrays.copyOf(worklist, pending * 2);
+                }
+                worklist[pending++] = handler.handlePc;
+            }
+        }
+
+        int maxStack = code.exceptionTable.length > 0 ? 1 : 0;
+        int maxLocals = parameterSlots;
+        ConstantPool constantPool = context.constantPool;
+        while (pending > 0) {
+            int pc = worklist[--pending];
+            int depth = depths[pc];
+            // 沿着顺序执行的指令一直分析下去, 遇到的分支目标第一次到达时放入 worklist
+            while (true) {
+                cursor.seek(pc);
+                int opcode = cursor.opcode();
+                int effect = Instruction.stackEffect(opcode);
+                if (effect == Instruction.VARIABLE_STACK_EFFECT) {
+                    effect = variableStackEffect(constantPool, cursor, opcode);
+                }
+                int after = depth + effect;
+                if (after < 0) {
+                    return error(method, code, "stack underflow at " + pc + " " + Instruction.name(opcode));
+                }
+                maxStack = Math.max(maxStack, after);
+                maxLocals = Math.max(maxLocals, localLimit(cursor, opcode));
+
+                int targets = branchCount(cursor, opcode);
+                for (int i = 0; i < targets; i++) {
+                    int target = branchTarget(cursor, opcode, i);
+                    if (target < 0 || target >= codeLength || !starts.get(target)) {
+                        return error(method, code, "branch to the middle of an instruction at " + pc);
+                    }
+                    if (depths[target] < 0) {
+                        depths[target] = after;
+                        if (pending == worklist.length) {
+                            worklist = Arrays.copyOf(worklist, pending * 2);
+                        }
+                        worklist[pending++] = target;
+                    } else if (depths[target] != after) {
+                        return error(method, code, "inconsistent stack height at " + target);
+                    }
+                }
+                if (!fallsThrough(opcode)) {
+                    break;
+                }
+                // jsr 压入的返回地址在 ret 时已经用掉, 返回之后栈深度和 jsr 之前相同
+                int fallThrough = opcode == JSR || opcode == JSR_W ? depth : after;
+                int next = pc + cursor.length();
+                if (next >= codeLength) {
+                    return error(method, code, "falling off the end of the code");
+                }
+                if (depths[next] >= 0) {
+                    if (depths[next] != fallThrough) {
+                        return error(method, code, "inconsistent stack height at " + next);
+                    }
+                    break;
+                }
+                depths[next] = fallThrough;
+                pc = next;
+                depth = fallThrough;
+            }
+        }
+        return new Report(method, code, maxStack, maxLocals, null);
+    }
+
+    private static Report error(String method, CodeInfo code, String error) {
+        return new Report(method, code, -1, -1, error);
+    }
+
+    private static final int GOTO = 167, JSR = 168, RET = 169, GOTO_W = 200, JSR_W = 201, ATHROW = 191;
+
+    /**
+     * 执行完之后是否可能继续执行下一条指令
+     */
+    private static boolean fallsThrough(int opcode) {
+        return !(opcode == GOTO || opcode == GOTO_W || opcode == RET || opcode == ATHROW
+                || (opcode >= 172 && opcode <= 177) // xreturn
+                || opcode == Instruction.TABLESWITCH_OPCODE || opcode == Instruction.LOOKUPSWITCH_OPCODE);
+    }
+
+    /**
+     * 当前指令的跳转目标个数
+     */
+    private static int branchCount(InstructionCursor cursor, int opcode) {
+        if (cursor.wide()) {
+            return 0;
+        }
+        switch (Instruction.format(opcode)) {
+            case Instruction.BRANCH2:
+            case Instruction.BRANCH4:
+                return 1;
+            case Instruction.TABLESWITCH:
+                return 1 + cursor.operand(2) - cursor.operand(1) + 1;
+            case Instruction.LOOKUPSWITCH:
+                return 1 + cursor.operand(1);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 当前指令的第 i 个跳转目标, switch 的第 0 个是 default
+     */
+    private static int branchTarget(InstructionCursor cursor, int opcode, int i) {
+        switch (Instruction.format(opcode)) {
+            case Instruction.TABLESWITCH:
+                return cursor.operand(i == 0 ? 0 : 2 + i);
+            case Instruction.LOOKUPSWITCH:
+                return cursor.operand(i == 0 ? 0 : 1 + i * 2);
+            default:
+                return cursor.operand(0);
+        }
+    }
+
+    /**
+     * 当前指令访问的局部变量的上界(索引 + 占用的 slot 数), 不访问局部变量时返回 0
+     */
+    private static int localLimit(InstructionCursor cursor, int opcode) {
+        if (opcode >= 21 && opcode <= 25) { // xload
+            return cursor.operand(0) + (opcode == 22 || opcode == 24 ? 2 : 1);
+        }
+        if (opcode >= 26 && opcode <= 45) { // xload_n
+            return (opcode - 26) % 4 + (opcode >= 30 && opcode <= 33 || opcode >= 38 && opcode <= 41 ? 2 : 1);
+        }
+        if (opcode >= 54 && opcode <= 58) { // xstore
+            return cursor.operand(0) + (opcode == 55 || opcode == 57 ? 2 : 1);
+        }
+        if (opcode >= 59 && opcode <= 78) { // xstore_n
+            return (opcode - 59) % 4 + (opcode >= 63 && opcode <= 66 || opcode >= 71 && opcode <= 74 ? 2 : 1);
+        }
+        if (opcode == Instruction.IINC_OPCODE || opcode == RET) {
+            return cursor.operand(0) + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * 字段访问, 方法调用和 multianewarray 的栈变化
+     */
+    private static int variableStackEffect(ConstantPool constantPool, InstructionCursor cursor, int opcode) {
+        if (opcode == 197) { // multianewarray: 弹出每一维的长度, 压入数组
+            return 1 - cursor.operand(1);
+        }
+        int slots = descriptorSlots(constantPool, cursor.operand(0));
+        int arguments = slots >>> 8;
+        int value = slots & 0xFF;
+        switch (opcode) {
+            case 178: // getstatic
+                return value;
+            case 179: // putstatic
+                return -value;
+            case 180: // getfield
+                return value - 1;
+            case 181: // putfield
+                return -value - 1;
+            case 184: // invokestatic
+            case 186: // invokedynamic
+                return value - arguments;
+            default: // invokevirtual, invokespecial, invokeinterface 还要弹出对象引用
+                return value - arguments - 1;
+        }
+    }
+
+    /**
+     * 字段, 方法或 invokedynamic 常量的描述符占用的 slot 数, 见 {@link #descriptorSlots(ByteBuffer, int, int)}
+     */
+    private static int descriptorSlots(ConstantPool constantPool, int index) {
+        ByteBuffer bytes = constantPool.bytes;
+        // Fieldref, Methodref, InterfaceMethodref, InvokeDynamic 的 name_and_type_index 都在 tag 之后第 3 个字节
+        int nameAndType = Utils.read2Number(bytes, constantPool.offset(index) + 3);
+        int descriptor = Utils.read2Number(bytes, constantPool.offset(nameAndType) + 3);
+        int offset = constantPool.offset(descriptor);
+        return descriptorSlots(bytes, offset + 3, Utils.read2Number(bytes, offset + 1));
+    }
+
+    /**
+     * 直接在字节上解析描述符, 不解码字符串
+     *
+     * @return 方法描述符: (参数的 slot 数 << 8) | 返回值的 slot 数; 字段描述符: 字段的 slot 数
+     */
+    static int descriptorSlots(ByteBuffer bytes, int offset, int length) {
+        int end = offset + length;
+        if (bytes.get(offset) != '(') {
+            return typeSlots(bytes.get(offset));
+        }
+        int arguments = 0;
+        int i = offset + 1;
+        while (i < end && bytes.get(i) != ')') {
+            byte c = bytes.get(i);
+            arguments += typeSlots(c);
+            while (c == '[') {
+                c = bytes.get(++i);
+            }
+            if (c == 'L') {
+                while (bytes.get(i) != ';') {
+                    i++;
+                }
+            }
+            i++;
+        }
+        return arguments << 8 | (i + 1 < end ? typeSlots(bytes.get(i + 1)) : 0);
+    }
+
+    private static int typeSlots(byte c) {
+        return c == 'V' ? 0 : c == 'J' || c == 'D' ? 2 : 1;
+    }
+}
@@ -0,0 +1,109 @@
+package site.jiyang;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * 批量解析时多个类共享的符号表, 把 Utf8 常量的字节映射为唯一的 String
+ * 查找时直接对原始字节计算 hash, 再和已有符号的 String 按编码逐字节比较(见 {@link ModifiedUtf8#equals}), 只有第一次遇到的符号才会解码.
+ * 每个符号只保存解码后的 String, 不保存原始字节
+ * 同一个符号表得到的相同符号是同一个对象, 可以用 == 比较(不规范的编码除外, 这种符号不保存, 每次都解码)
+ * <p>
+ * 按 hash 分成多个分段, 每个分段是一个有自己的锁的链式 hash 表, 不同分段之间互不阻塞
+ */
+final class SymbolTable {
+    private static final int SEGMENTS = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    SymbolTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    private static final class Symbol {
+        final int hash;
+        final String value;
+        Symbol next;
+
+        Symbol(int hash, String value, Symbol next) {
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    private static final class Segment {
+        private Symbol[] table = new Symbol[64];
+        private int size;
+
+        synchronized String intern(ByteBuffer bytes, int offset, int length, int hash) {
+            int index = hash & (table.length - 1);
+            for (Symbol symbol = table[index]; symbol != null; symbol = symbol.next) {
+                if (symbol.hash == hash && ModifiedUtf8.equals(bytes, offset, length, symbol.value)) {
+                    return symbol.value;
+                }
+            }
+            String value = Utils.readString(bytes, offset, length);
+            if (!ModifiedUtf8.equals(bytes, offset, length, value)) {
+                // 不规范的编码(例如过长的编码)解码后再编码和原始字节不同, 放入表中也永远不会命中, 所以不保存
+                return value;
+            }
+            table[index] = new Symbol(hash, value, table[index]);
+            if (++size > table.length * 3 / 4) {
+                resize();
+            }
+            return value;
+        }
+
+        private void resize() {
+            Symbol[] larger = new Symbol[table.length * 2];
+            for (Symbol head : table) {
+                for (Symbol symbol = head; symbol != null; ) {
+                    Symbol next = symbol.next;
+                    int index = symbol.hash & (larger.length - 1);
+                    symbol.next = larger[index];
+                    larger[index] = symbol;
+                    symbol = next;
+                }
+            }
+            table = larger;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    /**
+     * bytes 中 [offset, offset + length) 的 Modified UTF-8 字节对应的唯一符号
+     */
+    String intern(ByteBuffer bytes, int offset, int length) {
+        int hash = hash(bytes, offset, length);
+        // 高位选择分段, 低位选择分段中的桶, 两者互不相关
+        return segments[(hash >>> 26) & (SEGMENTS - 1)].intern(bytes, offset, length, hash);
+    }
+
+    private static int hash(ByteBuffer bytes, int offset, int length) {
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes.get(offset + i);
+        }
+        // 打散低位相同的 hash, 同 HashMap
+        return hash ^ (hash >>> 16);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolTable{symbols=" + size() + '}';
+    }
+}
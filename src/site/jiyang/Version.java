@@ -1,10 +1,12 @@
 package site.jiyang;
 
 
+import java.nio.ByteBuffer;
+
 class Version extends Section {
 
-    public Version(int start, byte[] bytes) {
-        super(start, bytes);
+    public Version(ParseContext context, int start, ByteBuffer bytes) {
+        super(context, start, bytes);
     }
 
     @Override